@@ -30,14 +30,31 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.HttpURLConnection;
+import java.net.URI;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
 
+import org.jshybugger.instrumentation.InstrumentationLevel;
 import org.jshybugger.instrumentation.JsCodeLoader;
+import org.jshybugger.instrumentation.ScriptClassifier;
+import org.jshybugger.instrumentation.ScriptUriInputStream;
 import org.jshybugger.server.Md5Checksum;
 import org.mozilla.javascript.EvaluatorException;
 
@@ -77,9 +94,27 @@ public class DebugContentProvider extends ContentProvider {
 	public static final String ORIGNAL_SELECTION = "original";
 	public static final String IS_CACHED_SELECTION = "isCached";
 
+	/** The path prefix to stream the original script source, i.e. content://jsHybugger.org/.source/file:///android_asset/app.js */
+	public static final String SOURCE_PATH_PREFIX = ".source/";
+	
+	/** The path prefix to stream the base64 encoded original script source. */
+	public static final String SOURCE_ENCODED_PATH_PREFIX = ".sourceEncoded/";
+
 	public static final String CACHE_DIR = ".jsHybugger";
 	public static final String CHANGED_CACHE_DIR = ".changed";
 
+	/** The cache dir for instrumented content, shared by all urls with the same content hash. */
+	public static final String CONTENT_CACHE_DIR = ".content";
+
+	/** The content value key to override the instrumentation level of a script, see {@link InstrumentationLevel}. */
+	public static final String INSTRUMENTATION_LEVEL = "instrumentationLevel";
+
+	/** The instrumentation level value which removes an override and re-enables automatic classification. */
+	public static final String INSTRUMENTATION_LEVEL_AUTO = "auto";
+
+	/** The file (inside the cache dir) which stores the instrumentation level overrides. */
+	private static final String INSTRUMENTATION_OVERRIDES_FILE = ".instrumentation";
+
 	private static final String FILE_HASH_PREFIX = ".hash";
 	
 	/** The Constant TAG. */
@@ -93,19 +128,48 @@ public class DebugContentProvider extends ContentProvider {
 
 	private static final String DEFAULT_PROVIDER_PROTOCOL = "content://jsHybugger.org/";
 
+	/** 
+	 * The number of pre-warm threads. Every thread runs one Rhino instrumentation at a time, on a parser thread 
+	 * with the instrumentation stack size, and holds the AST of the script in memory. Two threads use a second core 
+	 * while keeping the memory of concurrent instrumentations, on top of the ones of live requests, bounded. 
+	 */
+	private static final int PREWARM_THREADS = 2;
+	
+	/** The asset directories added by the android build, not part of the app. */
+	private static final String[] SYSTEM_ASSET_DIRS = { "images", "sounds", "webkit" };
+	
+	/** The Constant SCRIPT_SRC_PATTERN matches the src attribute of script tags. */
+	private static final Pattern SCRIPT_SRC_PATTERN = Pattern.compile("<script[^>]+src\\s*=\\s*[\"']([^\"']+)[\"']", Pattern.CASE_INSENSITIVE);
+
 	/** The debug service started. */
 	private CountDownLatch debugServiceStarted = new CountDownLatch(1);
 	
 	/** The debug service msg handler. */
 	private DebugServiceMsgHandler debugServiceMsgHandler = new DebugServiceMsgHandler(debugServiceStarted);
 	
+	/** The time (System.currentTimeMillis) after which requests no longer wait for the debug service, -1 to wait forever. */
+	private long debugServiceWaitDeadline = -1;
+	
 	private File cache_dir = null;
 	private File changed_cache_dir=null;
+	private File content_cache_dir=null;
 	
 	private Map<String,Object> providerProperties = new HashMap<String,Object>();
 
 	private Pattern excludePattern = Pattern.compile("\\.min\\.js");
 
+	/** The script classifier, null if library detection is disabled. */
+	private ScriptClassifier scriptClassifier = new ScriptClassifier();
+
+	/** The instrumentation level overrides (url -> level). */
+	private final Properties instrumentationOverrides = new Properties();
+
+	/** The per url locks, which serialize caching and instrumentation of an url. */
+	private final ConcurrentMap<String,Object> cacheLocks = new ConcurrentHashMap<String,Object>();
+	
+	/** The pre-warm executor, null if pre-warming is disabled. */
+	private ExecutorService prewarmExecutor;
+
 
 	/**
 	 * Gets the provider protocol.
@@ -130,18 +194,53 @@ public class DebugContentProvider extends ContentProvider {
 	@Override
 	public ParcelFileDescriptor openFile(Uri uri, String mode) {
 
+		// script source requests come from the running debug service - no need to wait
+		String path = uri.getPath().substring(1);
+		if (path.startsWith(SOURCE_PATH_PREFIX)) {
+			return openScriptSource(path.substring(SOURCE_PATH_PREFIX.length()), false);
+		} else if (path.startsWith(SOURCE_ENCODED_PATH_PREFIX)) {
+			return openScriptSource(path.substring(SOURCE_ENCODED_PATH_PREFIX.length()), true);
+		}
+		
 		// wait here till sync debug service is started
 		try {
 			if (debugServiceStarted.getCount() > 0) {
-				Log.i(TAG, "Waiting for jsHybugger DebugService");
-				debugServiceStarted.await();
-				Log.i(TAG, "jsHybugger DebugContentProvider synchronized with DebugService");
+				if (debugServiceWaitDeadline < 0) {
+					Log.i(TAG, "Waiting for jsHybugger DebugService");
+					debugServiceStarted.await();
+					Log.i(TAG, "jsHybugger DebugContentProvider synchronized with DebugService");
+					
+				} else {
+					long waitTime = debugServiceWaitDeadline - System.currentTimeMillis();
+					if (waitTime > 0) {
+						Log.i(TAG, "Waiting for jsHybugger DebugService, max. " + waitTime + "ms");
+						if (debugServiceStarted.await(waitTime, TimeUnit.MILLISECONDS)) {
+							Log.i(TAG, "jsHybugger DebugContentProvider synchronized with DebugService");
+						} else {
+							Log.i(TAG, "jsHybugger DebugService not ready, delivering resources without waiting");
+						}
+					}
+				}
 			}
 		} catch (InterruptedException e1) {
 			Log.e(TAG, "Waiting for debug service interrupted");
 		}
 
         String url = uri.getPath().substring(1);
+        synchronized (getCacheLock(url)) {
+        	return openResource(uri, url);
+        }
+	}
+	
+	/**
+	 * Opens a resource and instruments javascript resources if necessary.
+	 * The caller must hold the cache lock of the url.
+	 *
+	 * @param uri the content uri
+	 * @param url the resource url
+	 * @return the parcel file descriptor
+	 */
+	private ParcelFileDescriptor openResource(Uri uri, String url) {
 		InputResource resource = null;
 		
 		try {
@@ -149,11 +248,7 @@ public class DebugContentProvider extends ContentProvider {
 			File cacheFile = searchCacheFile(url);
 			// if the file exists in the "changed" cache - then return the file - and stop further checks/processing 
 			if (cacheFile.exists() && isChangedCacheFile(cacheFile)) {
-				File instrumentedFile = searchCacheFile(url + INSTRUMENTED_FILE_APPENDIX);
-				if (instrumentedFile.exists() && isChangedCacheFile(instrumentedFile)) {
-					return ParcelFileDescriptor.open(instrumentedFile, ParcelFileDescriptor.MODE_READ_ONLY);
-				}
-				return ParcelFileDescriptor.open(cacheFile, ParcelFileDescriptor.MODE_READ_ONLY);
+				return openCacheFile(url, cacheFile);
 			}
 			
 			try {
@@ -161,29 +256,20 @@ public class DebugContentProvider extends ContentProvider {
 			} catch (FileNotFoundException fex) {
 				// happens only for on the fly instrumented resources - only a cache version exists
 				if (cacheFile.exists()) {
-					File instrumentedFile = searchCacheFile(url + INSTRUMENTED_FILE_APPENDIX);
-					if (instrumentedFile.exists()) {
-						return ParcelFileDescriptor.open(instrumentedFile, ParcelFileDescriptor.MODE_READ_ONLY);
-					}
-					return ParcelFileDescriptor.open(cacheFile, ParcelFileDescriptor.MODE_READ_ONLY);
+					return openCacheFile(url, cacheFile);
 				} else {
 					throw fex;
 				}
 			}
 			
+			String resourceHash = null;
 			if (resource.isJs()) { 
 				
-				String resourceHash = calcResourceHash(resource);
+				resourceHash = calcResourceHash(resource);
 				cacheFile = searchCacheFile(url);
 				
 				if (cacheFile.exists() && isCacheFileValid(resourceHash, cacheFile)) {
-					
-					File instrumentedFile = getInstrumentedCacheFile(cacheFile);
-					if (instrumentedFile.exists()) {
-						return ParcelFileDescriptor.open(instrumentedFile, ParcelFileDescriptor.MODE_READ_ONLY);
-					} else {
-						return ParcelFileDescriptor.open(cacheFile, ParcelFileDescriptor.MODE_READ_ONLY);
-					}
+					return openCacheFile(url, cacheFile);
 				} else {
 					writeCacheFile(resource, resourceHash, cacheFile);
 				}
@@ -201,28 +287,29 @@ public class DebugContentProvider extends ContentProvider {
 			} else if (resource.isJs() && !excludePattern.matcher(url).find()) {
 
 				// instrument js code
-				File outFile = getInstrumentedCacheFile(cacheFile);
 				try {
-					JsCodeLoader.instrumentFile(url, resource.getInputStream(), new FileOutputStream(outFile), providerProperties);
+					InstrumentationLevel level = getInstrumentationLevel(url, resourceHash, cacheFile);
+					if (level == InstrumentationLevel.NONE) {
+				        Log.d(TAG, "skipping instrumentation of file: " + uri);
+				        writeCacheIndex(cacheFile, resourceHash, level);
+						return ParcelFileDescriptor.open(cacheFile, ParcelFileDescriptor.MODE_READ_ONLY);
+					}
+					
+					instrumentContent(resource, resourceHash, cacheFile, level);
 					
 					// return instrumented js code
-					return ParcelFileDescriptor.open(outFile, ParcelFileDescriptor.MODE_READ_ONLY);
+					return openCacheFile(url, cacheFile);
 
 				} catch (EvaluatorException e) {
-			        Log.d(TAG, "parsing failure while instrumenting file: " + e.getMessage());
+					String message = e.getMessage().replace(JsCodeLoader.SCRIPT_URI_PLACEHOLDER, url);
+			        Log.d(TAG, "parsing failure while instrumenting file: " + message);
 
-			        // delete file - maybe partially instrumented file.
-					outFile.delete();
-					
-					String writeConsole = "console.error('" + e.getMessage().replace("'", "\"") + "')";
+					String writeConsole = "console.error('" + message.replace("'", "\"") + "')";
 					return createParcel(new InputResource(false, false, new BufferedInputStream( new ByteArrayInputStream(writeConsole.getBytes()))));
 					
 				} catch (Exception e) {
 			        Log.d(TAG, "instrumentation failed, delivering original file: " + uri, e);
 
-			        // delete file - maybe partially instrumented file.
-					outFile.delete();
-
 					return createParcel(openInputFile(url));
 					
 				} finally {
@@ -242,6 +329,255 @@ public class DebugContentProvider extends ContentProvider {
 		return null;
     }
 
+	/**
+	 * Streams the original source of a resource through a pipe, the content is encoded while it's transferred.
+	 *
+	 * @param url the resource url
+	 * @param encode true to use base64 encoding
+	 * @return the parcel file descriptor or null if the resource is not available
+	 */
+	private ParcelFileDescriptor openScriptSource(String url, boolean encode) {
+		try {
+			InputStream inputStream = openSourceStream(url, true);
+			ParcelFileDescriptor[] pipe = ParcelFileDescriptor.createPipe();
+			
+			OutputStream out = new AutoCloseOutputStream(pipe[1]);
+			if (encode) {
+				out = new Base64OutputStream(out, Base64.DEFAULT);
+			}
+			new TransferThread(inputStream, out, false).start();
+			
+			return pipe[0];
+			
+		} catch (IOException e) {
+	        Log.e(TAG, "script source open failed: " + e);
+		}
+		return null;
+	}
+	
+	/**
+	 * Opens the source of a resource, cached content is preferred.
+	 *
+	 * @param url the resource url
+	 * @param original true to get the original source, false to get the instrumented one (if available)
+	 * @return the input stream
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	private BufferedInputStream openSourceStream(String url, boolean original) throws IOException {
+		
+		File cacheFile = searchCacheFile(url);
+		if (cacheFile.exists()) {
+
+			File instrumentedFile = getInstrumentedCacheFile(cacheFile);
+			if (!original && instrumentedFile != null) {
+				return new BufferedInputStream(new ScriptUriInputStream(new FileInputStream(instrumentedFile), url));
+			} else {
+				return new BufferedInputStream(new FileInputStream(cacheFile));
+			}
+		} else {
+			return openInputFile(url).inputStream;
+		}
+	}
+	
+	private Object getCacheLock(String url) {
+		Object lock = cacheLocks.get(url);
+		if (lock == null) {
+			Object newLock = new Object();
+			lock = cacheLocks.putIfAbsent(url, newLock);
+			if (lock == null) {
+				lock = newLock;
+			}
+		}
+		return lock;
+	}
+	
+	/**
+	 * Starts the background instrumentation of all javascript assets.
+	 * Scripts referenced by html pages are instrumented first, index pages before other pages.
+	 */
+	private void startPrewarm() {
+		prewarmExecutor = Executors.newFixedThreadPool(PREWARM_THREADS, new ThreadFactory() {
+			
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "jsHybuggerPrewarm");
+				thread.setDaemon(true);
+				thread.setPriority(Thread.MIN_PRIORITY);
+				return thread;
+			}
+		});
+		
+		prewarmExecutor.execute(new Runnable() {
+			
+			@Override
+			public void run() {
+				try {
+					List<String> pages = new ArrayList<String>();
+					Set<String> scripts = new LinkedHashSet<String>();
+					listAssets("", pages, scripts);
+					
+					Set<String> orderedScripts = new LinkedHashSet<String>();
+					for (String page : pages) {
+						if (page.endsWith("index.html")) {
+							orderedScripts.addAll(getPageScripts(page, scripts));
+						}
+					}
+					for (String page : pages) {
+						orderedScripts.addAll(getPageScripts(page, scripts));
+					}
+					orderedScripts.addAll(scripts);
+					
+					Log.i(TAG, "pre-warming " + orderedScripts.size() + " scripts");
+					for (final String script : orderedScripts) {
+						prewarmExecutor.execute(new Runnable() {
+							
+							@Override
+							public void run() {
+								prewarmScript(ANDROID_ASSET_URL + script);
+							}
+						});
+					}
+				} catch (IOException e) {
+					Log.e(TAG, "pre-warming failed", e);
+				} catch (RejectedExecutionException e) {
+					// provider shutdown
+				}
+			}
+		});
+	}
+	
+	/**
+	 * Collects all html pages and javascript files in the assets.
+	 *
+	 * @param dir the asset directory
+	 * @param pages the html pages
+	 * @param scripts the javascript files
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	private void listAssets(String dir, List<String> pages, Set<String> scripts) throws IOException {
+		
+		AssetManager assets = getContext().getAssets();
+		for (String name : assets.list(dir)) {
+			if (Thread.currentThread().isInterrupted()) {
+				return;
+			}
+			
+			String path = dir.length() > 0 ? dir + "/" + name : name;
+			if (name.endsWith(".js")) {
+				if (!name.equals("jshybugger.js")) {
+					scripts.add(path);
+				}
+			} else if (name.endsWith(".html")) {
+				pages.add(path);
+			} else if (name.indexOf('.') < 0 && !(dir.length() == 0 && isSystemAssetDir(name))) {
+				listAssets(path, pages, scripts);
+			}
+		}
+	}
+	
+	private boolean isSystemAssetDir(String name) {
+		for (String systemDir : SYSTEM_ASSET_DIRS) {
+			if (systemDir.equals(name)) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * Gets the local scripts referenced by a html page, in document order.
+	 *
+	 * @param page the page asset path
+	 * @param scripts the known script assets
+	 * @return the script asset paths
+	 */
+	private List<String> getPageScripts(String page, Set<String> scripts) {
+		
+		List<String> pageScripts = new ArrayList<String>();
+		try {
+			InputStream in = getContext().getAssets().open(page);
+			ByteArrayOutputStream content = new ByteArrayOutputStream();
+			try {
+				byte[] buffer = new byte[4096];
+				int len;
+				while ((len = in.read(buffer)) > 0) {
+					content.write(buffer, 0, len);
+				}
+			} finally {
+				in.close();
+			}
+			
+			Matcher matcher = SCRIPT_SRC_PATTERN.matcher(content.toString());
+			while (matcher.find()) {
+				String src = matcher.group(1).replaceAll("[?#].*", "");
+				if (src.indexOf(':') >= 0 || src.startsWith("/")) {
+					continue; // only relative asset references
+				}
+				try {
+					String path = new URI(null, null, "/" + page, null).resolve(src).getPath().substring(1);
+					if (scripts.contains(path)) {
+						pageScripts.add(path);
+					}
+				} catch (Exception e) {
+					Log.d(TAG, "invalid script reference: " + src);
+				}
+			}
+		} catch (IOException e) {
+			Log.d(TAG, "reading page failed: " + page);
+		}
+		return pageScripts;
+	}
+	
+	/**
+	 * Caches and instruments a script, like the first request of the script would do.
+	 *
+	 * @param url the script url
+	 */
+	private void prewarmScript(String url) {
+		
+		if (Thread.currentThread().isInterrupted()) {
+			return;
+		}
+		
+		synchronized (getCacheLock(url)) {
+			InputResource resource = null;
+			File cacheFile = null;
+			try {
+				resource = openInputFile(url);
+				String resourceHash = calcResourceHash(resource);
+				
+				cacheFile = searchCacheFile(url);
+				if (isChangedCacheFile(cacheFile) || (cacheFile.exists() && isCacheFileValid(resourceHash, cacheFile))) {
+					return;
+				}
+				
+				writeCacheFile(resource, resourceHash, cacheFile);
+				if (!excludePattern.matcher(url).find()) {
+					InstrumentationLevel level = getInstrumentationLevel(url, resourceHash, cacheFile);
+					if (level != InstrumentationLevel.NONE) {
+						instrumentContent(resource, resourceHash, cacheFile, level);
+					}
+				}
+				Log.d(TAG, "pre-warmed: " + url);
+				
+			} catch (Exception e) {
+				Log.d(TAG, "pre-warming failed: " + url + ", " + e);
+				
+				// let the first request retry and report the failure
+				if (cacheFile != null) {
+					new File(cacheFile.getAbsolutePath() + FILE_HASH_PREFIX).delete();
+				}
+			} finally {
+				if (resource != null) {
+					try {
+						resource.getInputStream().close();
+					} catch (IOException e) {
+					}
+				}
+			}
+		}
+	}
+	
 	private boolean isChangedCacheFile(File cacheFile) {
 		return cacheFile.getAbsolutePath().startsWith(changed_cache_dir.getAbsolutePath());
 	}
@@ -249,10 +585,8 @@ public class DebugContentProvider extends ContentProvider {
 	private void writeCacheFile(InputResource resource, String resourceHash,
 			File cacheFile) throws IOException {
 		
-		// first write hash file
-		FileWriter fw = new FileWriter(new File(cacheFile.getAbsolutePath() + FILE_HASH_PREFIX));
-		fw.write(resourceHash);
-		fw.close();
+		// first write hash file - the content is not instrumented yet
+		writeCacheIndex(cacheFile, resourceHash, InstrumentationLevel.NONE);
 		
 		// now write original content
 		BufferedOutputStream fout = new BufferedOutputStream(new FileOutputStream(new File(cacheFile.getAbsolutePath())));
@@ -266,10 +600,168 @@ public class DebugContentProvider extends ContentProvider {
 		resource.inputStream.reset();
 	}
 
-	private File getInstrumentedCacheFile(File resource) {
-		return resource.getAbsolutePath().endsWith(INSTRUMENTED_FILE_APPENDIX)
-				? resource 
-				: new File(resource.getAbsoluteFile() + INSTRUMENTED_FILE_APPENDIX);
+	/**
+	 * Gets the instrumentation level for a javascript resource.
+	 * A level set by the debugger frontend wins over the automatic classification.
+	 *
+	 * @param url the resource url
+	 * @param resourceHash the resource hash
+	 * @param cacheFile the cached original content
+	 * @return the instrumentation level
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	private InstrumentationLevel getInstrumentationLevel(String url, String resourceHash, File cacheFile) throws IOException {
+		
+		InstrumentationLevel level = InstrumentationLevel.fromProtocolName(instrumentationOverrides.getProperty(url));
+		if (level != null) {
+			return level;
+		}
+		
+		if (scriptClassifier == null) {
+			return InstrumentationLevel.FULL;
+		}
+		
+		InputStream in = new BufferedInputStream(new FileInputStream(cacheFile));
+		try {
+			level = scriptClassifier.classify(resourceHash, in);
+			if (level != InstrumentationLevel.FULL) {
+				Log.i(TAG, "library detection: " + url + " -> " + level.getProtocolName());
+			}
+			return level;
+		} finally {
+			in.close();
+		}
+	}
+	
+	/**
+	 * Sets (or removes) the instrumentation level override for a javascript resource.
+	 * The cached files are removed, the new level will be applied the next time the resource is loaded.
+	 *
+	 * @param url the resource url
+	 * @param levelName the protocol name of the level or {@link #INSTRUMENTATION_LEVEL_AUTO}
+	 * @return true, if successful
+	 */
+	private boolean setInstrumentationLevel(String url, String levelName) {
+		
+		if (INSTRUMENTATION_LEVEL_AUTO.equals(levelName)) {
+			instrumentationOverrides.remove(url);
+		} else if (InstrumentationLevel.fromProtocolName(levelName) != null) {
+			instrumentationOverrides.setProperty(url, levelName);
+		} else {
+			throw new IllegalArgumentException("invalid instrumentation level: " + levelName);
+		}
+		
+		new File(cache_dir, getCacheItemName(url) + FILE_HASH_PREFIX).delete();
+		
+		synchronized (instrumentationOverrides) {
+			try {
+				FileOutputStream out = new FileOutputStream(new File(cache_dir, INSTRUMENTATION_OVERRIDES_FILE));
+				try {
+					instrumentationOverrides.store(out, "jsHybugger instrumentation levels");
+				} finally {
+					out.close();
+				}
+			} catch (IOException e) {
+				Log.e(TAG, "saving instrumentation levels failed", e);
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Opens a cached resource, the instrumented content is delivered if available.
+	 *
+	 * @param url the resource url
+	 * @param cacheFile the cached original content
+	 * @return the parcel file descriptor
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	private ParcelFileDescriptor openCacheFile(String url, File cacheFile) throws IOException {
+		File instrumentedFile = getInstrumentedCacheFile(cacheFile);
+		if (instrumentedFile != null) {
+			return createParcel(new InputResource(true, false, 
+					new BufferedInputStream(new ScriptUriInputStream(new FileInputStream(instrumentedFile), url))));
+		}
+		return ParcelFileDescriptor.open(cacheFile, ParcelFileDescriptor.MODE_READ_ONLY);
+	}
+	
+	/**
+	 * Instruments a javascript resource. The instrumented content is stored once per content hash and level,
+	 * the script url is applied when the content is delivered (see {@link ScriptUriInputStream}).
+	 *
+	 * @param resource the resource
+	 * @param resourceHash the resource hash
+	 * @param cacheFile the cached original content
+	 * @param level the instrumentation level
+	 * @throws Exception the exception
+	 */
+	private void instrumentContent(InputResource resource, String resourceHash, File cacheFile, InstrumentationLevel level) throws Exception {
+		
+		File contentFile = getInstrumentedContentFile(resourceHash, level);
+		if (contentFile.exists()) {
+			Log.d(TAG, "reusing instrumented content: " + contentFile.getName());
+		} else {
+			// write to a temporary file first, the same content might be instrumented concurrently for another url 
+			File tmpFile = File.createTempFile(resourceHash, null, content_cache_dir);
+			try {
+				JsCodeLoader.instrumentFile(JsCodeLoader.SCRIPT_URI_PLACEHOLDER, resource.getInputStream(), new FileOutputStream(tmpFile), providerProperties, level);
+				if (!tmpFile.renameTo(contentFile) && !contentFile.exists()) {
+					throw new IOException("storing instrumented content failed: " + contentFile.getAbsolutePath());
+				}
+			} finally {
+				tmpFile.delete();
+			}
+		}
+		
+		writeCacheIndex(cacheFile, resourceHash, level);
+	}
+	
+	/**
+	 * Writes the index entry for a cached url, which maps the url to its content hash and instrumentation level.
+	 *
+	 * @param cacheFile the cached original content
+	 * @param resourceHash the resource hash
+	 * @param level the instrumentation level
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	private void writeCacheIndex(File cacheFile, String resourceHash, InstrumentationLevel level) throws IOException {
+		FileWriter fw = new FileWriter(new File(cacheFile.getAbsolutePath() + FILE_HASH_PREFIX));
+		fw.write(resourceHash + "\n" + level.getProtocolName());
+		fw.close();
+	}
+	
+	/**
+	 * Gets the instrumented content of a cached url.
+	 *
+	 * @param cacheFile the cached original content
+	 * @return the instrumented content file or null, if the url is not instrumented
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	private File getInstrumentedCacheFile(File cacheFile) throws IOException {
+		
+		File hashFile = new File(cacheFile.getAbsoluteFile() + FILE_HASH_PREFIX);
+		if (!hashFile.exists()) {
+			return null;
+		}
+		
+		BufferedReader fr = new BufferedReader(new FileReader(hashFile));
+		try {
+			String resourceHash = fr.readLine();
+			InstrumentationLevel level = InstrumentationLevel.fromProtocolName(fr.readLine());
+			if (resourceHash == null || level == null || level == InstrumentationLevel.NONE) {
+				return null;
+			}
+			
+			File contentFile = getInstrumentedContentFile(resourceHash, level);
+			return contentFile.exists() ? contentFile : null;
+		} finally {
+			fr.close();
+		}
+	}
+	
+	private File getInstrumentedContentFile(String resourceHash, InstrumentationLevel level) {
+		return new File(content_cache_dir, resourceHash 
+				+ (level == InstrumentationLevel.STACK_ONLY ? ".stack" : "") + INSTRUMENTED_FILE_APPENDIX);
 	}
 	
 	private String calcResourceHash(InputResource resource) throws IOException {
@@ -284,15 +776,18 @@ public class DebugContentProvider extends ContentProvider {
 	private boolean isCacheFileValid(String resourceHash, File cacheFile) throws IOException {
 		
 		String cacheHash = null;
+		String cacheLevel = null;
 
 		File hashFile = new File(cacheFile.getAbsoluteFile() + FILE_HASH_PREFIX);
 		if (hashFile.exists()) {
 			BufferedReader fr = new BufferedReader(new FileReader(hashFile));
 			cacheHash = fr.readLine();
+			cacheLevel = fr.readLine();
 			fr.close();
 		}
 		
-		return resourceHash.equals(cacheHash);
+		// entries without instrumentation level are from an old cache layout
+		return resourceHash.equals(cacheHash) && cacheLevel != null;
 	}
 
 	private File searchCacheFile(String url) {
@@ -305,6 +800,23 @@ public class DebugContentProvider extends ContentProvider {
 		return loadUrlFd;
 	}
 	
+	/**
+	 * Deletes the files of a directory.
+	 *
+	 * @param dir the directory
+	 * @return the number of files, 0 if the directory is missing or unreadable
+	 */
+	private static int deleteFiles(File dir) {
+		File[] files = dir.listFiles();
+		if (files == null) {
+			return 0;
+		}
+		for (File file : files) {
+			file.delete();
+		}
+		return files.length;
+	}
+	
 	private boolean deleteCacheFile(File cache, String url) {
 		String loadUrl = getCacheItemName(url);
 		File loadUrlFd = new File(cache, loadUrl);
@@ -320,10 +832,57 @@ public class DebugContentProvider extends ContentProvider {
 		if (!changed_cache_dir.exists() && !changed_cache_dir.mkdir()) {
 			Log.e(TAG, "Creating jsHybugger changed cache failed. "  + changed_cache_dir.getAbsolutePath());
 		}
+		content_cache_dir = new File(cache_dir, CONTENT_CACHE_DIR);
+		if (!content_cache_dir.exists() && !content_cache_dir.mkdir()) {
+			Log.e(TAG, "Creating jsHybugger content cache failed. "  + content_cache_dir.getAbsolutePath());
+		}
 		
-		// clear all files in changed cache
-		for (File file : changed_cache_dir.listFiles()) {
-			file.delete();
+		// clear changed cache - the directory is moved away and deleted in the background, 
+		// left overs of an interrupted cleanup are deleted too
+		// list() returns null if a directory is missing or unreadable, i.e. creating it failed above
+		final List<File> obsoleteDirs = new ArrayList<File>();
+		String[] changedFiles = changed_cache_dir.list();
+		if (changedFiles != null && changedFiles.length > 0) {
+			if (changed_cache_dir.renameTo(new File(cache_dir, CHANGED_CACHE_DIR + "-" + System.currentTimeMillis()))) {
+				changed_cache_dir.mkdir();
+			} else {
+				deleteFiles(changed_cache_dir);
+			}
+		}
+		File[] cacheFiles = cache_dir.listFiles();
+		for (int i = 0; cacheFiles != null && i < cacheFiles.length; i++) {
+			if (cacheFiles[i].isDirectory() && cacheFiles[i].getName().startsWith(CHANGED_CACHE_DIR + "-")) {
+				obsoleteDirs.add(cacheFiles[i]);
+			}
+		}
+		if (!obsoleteDirs.isEmpty()) {
+			Thread cleanupThread = new Thread("jsHybuggerCacheCleanup") {
+				
+				@Override
+				public void run() {
+					for (File dir : obsoleteDirs) {
+						deleteFiles(dir);
+						dir.delete();
+					}
+				}
+			};
+			cleanupThread.setDaemon(true);
+			cleanupThread.setPriority(Thread.MIN_PRIORITY);
+			cleanupThread.start();
+		}
+		
+		File overridesFile = new File(cache_dir, INSTRUMENTATION_OVERRIDES_FILE);
+		if (overridesFile.exists()) {
+			try {
+				FileInputStream in = new FileInputStream(overridesFile);
+				try {
+					instrumentationOverrides.load(in);
+				} finally {
+					in.close();
+				}
+			} catch (IOException e) {
+				Log.e(TAG, "loading instrumentation levels failed", e);
+			}
 		}
 	}
 
@@ -425,6 +984,7 @@ public class DebugContentProvider extends ContentProvider {
 	public boolean onCreate() {
 		
 		Intent service = new Intent(getContext(), DebugService.class);
+		boolean prewarm = false;
 		try {
 			ProviderInfo info = getContext().getPackageManager().getProviderInfo(new ComponentName(getContext(), DebugContentProvider.class), PackageManager.GET_PROVIDERS|PackageManager.GET_META_DATA);
 			Bundle metaData = info.metaData;
@@ -443,6 +1003,21 @@ public class DebugContentProvider extends ContentProvider {
 						Log.e(TAG, "invalid excludePattern: " + pse.getMessage());
 					}
 				}
+				
+				if (!metaData.getBoolean("libraryDetection", true)) {
+					scriptClassifier = null;
+				} else {
+					scriptClassifier.addFingerprints(metaData.getString("libraryFingerprints"));
+					scriptClassifier.setMaxSize(metaData.getInt("libraryMaxSize", ScriptClassifier.DEFAULT_MAX_SIZE));
+					scriptClassifier.setMaxAvgLineLength(metaData.getInt("libraryMaxLineLength", ScriptClassifier.DEFAULT_MAX_AVG_LINE_LENGTH));
+				}
+				
+				prewarm = metaData.getBoolean("prewarmCache", false);
+				
+				int waitTime = metaData.getInt("debugServiceWaitTime", -1);
+				if (waitTime >= 0) {
+					debugServiceWaitDeadline = System.currentTimeMillis() + waitTime;
+				}
 			}
 			
 			Log.d(TAG, "Content provider started: " + info.authority);
@@ -453,6 +1028,10 @@ public class DebugContentProvider extends ContentProvider {
 		}
 		
 		prepareCache();
+		
+		if (prewarm) {
+			startPrewarm();
+		}
 				 
 		// initiate debug service start, and pass message handler to receive debug service started message.
 		service.putExtra("callback", new Messenger(debugServiceMsgHandler));
@@ -461,6 +1040,17 @@ public class DebugContentProvider extends ContentProvider {
 		return true;
 	}
 	
+	/* (non-Javadoc)
+	 * @see android.content.ContentProvider#shutdown()
+	 */
+	@Override
+	public void shutdown() {
+		if (prewarmExecutor != null) {
+			prewarmExecutor.shutdownNow();
+		}
+		super.shutdown();
+	}
+	
 	/* (non-Javadoc)
 	 * @see android.content.ContentProvider#delete(android.net.Uri, java.lang.String, java.lang.String[])
 	 */
@@ -469,17 +1059,19 @@ public class DebugContentProvider extends ContentProvider {
 		int numFiles=0;
 		
 		// clear all files in cache
-		for (File file : cache_dir.listFiles()) {
-			if (!file.getName().equals(CHANGED_CACHE_DIR)) {
+		File[] cacheFiles = cache_dir.listFiles();
+		for (int i = 0; cacheFiles != null && i < cacheFiles.length; i++) {
+			File file = cacheFiles[i];
+			if (!file.getName().equals(CHANGED_CACHE_DIR) && !file.getName().equals(CONTENT_CACHE_DIR) 
+					&& !file.getName().equals(INSTRUMENTATION_OVERRIDES_FILE)) {
 				file.delete();
 				numFiles++;
 			}
 		}
 		// clear all files in changed cache
-		for (File file : changed_cache_dir.listFiles()) {
-			file.delete();
-			numFiles++;
-		}
+		numFiles += deleteFiles(changed_cache_dir);
+		// clear all instrumented content
+		numFiles += deleteFiles(content_cache_dir);
 		
 		return numFiles;
 	}
@@ -525,27 +1117,25 @@ public class DebugContentProvider extends ContentProvider {
 				writeCacheFile(resource, resourceHash, cacheFile);
 			
 				// instrument js code
-				File outFile =  getInstrumentedCacheFile(cacheFile);
 				try {
 					if (!excludePattern.matcher(url).find()) {
-						JsCodeLoader.instrumentFile(url, resource.getInputStream(), new FileOutputStream(outFile), providerProperties);
+						InstrumentationLevel level = getInstrumentationLevel(url, resourceHash, cacheFile);
+						if (level != InstrumentationLevel.NONE) {
+							instrumentContent(resource, resourceHash, cacheFile, level);
+						} else {
+							writeCacheIndex(cacheFile, resourceHash, level);
+						}
 					}
 					return uri;
 					
 				} catch (EvaluatorException e) {
-			        Log.d(TAG, "parsing failure while instrumenting file: " + e.getMessage());
+					String writeConsole = e.getMessage().replace(JsCodeLoader.SCRIPT_URI_PLACEHOLDER, url);
+			        Log.d(TAG, "parsing failure while instrumenting file: " + writeConsole);
 
-			        // delete file - maybe partially instrumented file.
-			        //outFile.delete();
-			        
-					String writeConsole = e.getMessage();
 					throw new RuntimeException(writeConsole);
 				} catch (Exception e) {
 			        Log.d(TAG, "instrumentation failed: " + uri, e);
 
-			        // delete file - maybe partially instrumented file.
-			        //outFile.delete();
-			        
 					throw new RuntimeException("instrumentation failed: " + uri, e);
 					
 				} finally {
@@ -575,29 +1165,15 @@ public class DebugContentProvider extends ContentProvider {
         String url = uri.getPath().substring(1);
 
 		try {
-	        BufferedInputStream inputStream = null;
-			File cacheFile = searchCacheFile(url);
-
 			// special columns "isCached" - just checks the cache and return 
 			if (IS_CACHED_SELECTION.equals(columns[0])) {
-				if (cacheFile.exists()) {
+				if (searchCacheFile(url).exists()) {
 					cursor.addRow(new Object[] { true });
 				}
 				return cursor;
 			}
 
-			if (cacheFile.exists()) {
-
-				File instrumentedFile = getInstrumentedCacheFile(cacheFile);
-				if (!ORIGNAL_SELECTION.equals(selection) && instrumentedFile.exists()) {
-					inputStream = new BufferedInputStream(new FileInputStream(instrumentedFile));
-				} else {
-					inputStream = new BufferedInputStream(new FileInputStream(cacheFile));
-				}
-			} else {
-				InputResource inputResource = openInputFile(url);
-				inputStream = new BufferedInputStream(inputResource.inputStream);
-			}
+	        BufferedInputStream inputStream = openSourceStream(url, ORIGNAL_SELECTION.equals(selection));
 			
 			if (inputStream != null) {
 				ByteArrayOutputStream byteOut = new ByteArrayOutputStream(inputStream.available());
@@ -642,6 +1218,10 @@ public class DebugContentProvider extends ContentProvider {
 	 */
 	@Override
 	public int update(Uri uri, ContentValues content, String arg2, String[] arg3) {
+		if (content.containsKey(INSTRUMENTATION_LEVEL)) {
+			return setInstrumentationLevel(uri.getPath().substring(1), content.getAsString(INSTRUMENTATION_LEVEL)) ? 1 : 0;
+		}
+		
 		Uri rUri = saveContent(uri, content.getAsString("scriptSource"), changed_cache_dir);
 		return rUri != null ? 1 : 0;
 	}
@@ -22,8 +22,13 @@ import java.util.List;
 
 import org.jshybugger.server.AndroidDebugServer;
 import org.jshybugger.server.AndroidDebugSession;
+import org.jshybugger.server.BrowserMessageQueue;
+import org.jshybugger.server.ConsoleMsgHandler;
+import org.jshybugger.server.DOMStorageMsgHandler;
 import org.jshybugger.server.DebugServer;
 import org.jshybugger.server.DebugSession;
+import org.jshybugger.server.OverflowPolicy;
+import org.jshybugger.server.PendingReplies;
 
 import android.app.Activity;
 import android.app.Service;
@@ -89,6 +94,9 @@ public class DebugService extends Service {
 			
 			DebugServer debugServer = new AndroidDebugServer( debugPort, domainSocketName );
 			debugSession = new AndroidDebugSession(this);
+			if (metaData != null) {
+				configureLimits(metaData);
+			}
 			
 			debugServer.exportSession(debugSession);
 		} catch (UnknownHostException e) {
@@ -156,6 +164,43 @@ public class DebugService extends Service {
 		}
 	}
 
+	/**
+	 * Configures the message buffer limits.
+	 *
+	 * @param metaData the service meta data
+	 */
+	private void configureLimits(Bundle metaData) {
+		
+		ConsoleMsgHandler consoleHandler = (ConsoleMsgHandler) debugSession.getMessageHandler("Console");
+		consoleHandler.setBufferLimits(
+				metaData.getInt("consoleBufferSize", ConsoleMsgHandler.DEFAULT_BUFFER_CAPACITY),
+				OverflowPolicy.fromConfigName(metaData.getString("consoleOverflowPolicy"), OverflowPolicy.DROP_OLDEST),
+				metaData.getInt("consoleBlockTimeout", (int) ConsoleMsgHandler.DEFAULT_BLOCK_TIMEOUT));
+		
+		// the commands are sent from the debug session loop, which must not wait for the webview
+		OverflowPolicy commandPolicy = OverflowPolicy.fromConfigName(metaData.getString("commandOverflowPolicy"), OverflowPolicy.DROP_NEWEST);
+		if (commandPolicy == OverflowPolicy.BLOCK) {
+			Log.w(TAG, "commandOverflowPolicy block is not supported, using dropNewest");
+			commandPolicy = OverflowPolicy.DROP_NEWEST;
+		}
+		JSDInterface.getJSDInterface().setQueueLimits(
+				metaData.getInt("commandQueueSize", BrowserMessageQueue.DEFAULT_CAPACITY),
+				commandPolicy);
+		JSDInterface.getJSDInterface().setReplyTimeout(
+				metaData.getInt("replyTimeout", (int) PendingReplies.DEFAULT_TIMEOUT));
+		
+		// the page can't wait for the debugger frontend
+		OverflowPolicy storagePolicy = OverflowPolicy.fromConfigName(metaData.getString("domStorageOverflowPolicy"), OverflowPolicy.DROP_NEWEST);
+		if (storagePolicy == OverflowPolicy.BLOCK) {
+			Log.w(TAG, "domStorageOverflowPolicy block is not supported, using dropNewest");
+			storagePolicy = OverflowPolicy.DROP_NEWEST;
+		}
+		DOMStorageMsgHandler storageHandler = (DOMStorageMsgHandler) debugSession.getMessageHandler("DOMStorage");
+		storageHandler.setEventLimits(
+				metaData.getInt("domStorageEventLimit", DOMStorageMsgHandler.DEFAULT_EVENT_LIMIT),
+				storagePolicy);
+	}
+	
 	/**
 	 * Attach web view to debug service.
 	 *
@@ -114,6 +114,12 @@ public class JSDInterface extends AbstractBrowserInterface {
 		return super.getQueuedMessage(wait);
 	}
 	
+	@Override
+	@JavascriptInterface
+	public String getQueuedMessages(boolean wait, int maxBytes){
+		return super.getQueuedMessages(wait, maxBytes);
+	}
+	
 	@Override
 	@JavascriptInterface
 	public void sendReplyToDebugService(int replyId, String data) {
@@ -126,5 +132,11 @@ public class JSDInterface extends AbstractBrowserInterface {
 		super.sendToDebugService(path, data);
 	}
 	
+	@Override
+	@JavascriptInterface
+	public void sendBatchToDebugService(String data) {
+		super.sendBatchToDebugService(data);
+	}
+	
 	
 }
@@ -1,12 +1,16 @@
 package org.jshybugger.server;
 
+import java.io.File;
+import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
 import java.net.UnknownHostException;
 
 import org.jshybugger.DebugContentProvider;
 
 import android.content.Context;
-import android.database.Cursor;
 import android.net.Uri;
 import android.util.Log;
 
@@ -21,13 +25,13 @@ public class AndroidDebugSession extends DebugSession {
 	public final String PROVIDER_PROTOCOL;
 
 	public AndroidDebugSession(Context application ) throws UnknownHostException {
-		super();
+		// breakpoints are restored on app start, so that startup code can be debugged
+		super(new File(application.getFilesDir(), "jsHybugger-debugger.json"));
 		this.application = application;
 		PROVIDER_PROTOCOL = DebugContentProvider.getProviderProtocol(application);
 		
 		// override the default one.
-		MessageHandler msgHandler = new AndroidDebuggerMsgHandler(this);
-		HANDLERS.put(msgHandler.getObjectName(), msgHandler);
+		addMessageHandler(new AndroidDebuggerMsgHandler(this));
 
 	}
 	
@@ -44,18 +48,29 @@ public class AndroidDebugSession extends DebugSession {
 		
 		Log.d(TAG, "loadScriptResourceById: " + scriptUri);
 		
-		Cursor cursor = application.getContentResolver().query(Uri.parse(PROVIDER_PROTOCOL + scriptUri), 
-				new String[] { encode ? "scriptSourceEncoded" : "scriptSource" }, 
-				DebugContentProvider.ORIGNAL_SELECTION, 
-				null, 
-				null);
+		// stream the source through a pipe - large scripts don't fit into a cursor window / binder transaction
+		InputStream in = null;
+		try {
+			in = application.getContentResolver().openInputStream(Uri.parse(PROVIDER_PROTOCOL 
+					+ (encode ? DebugContentProvider.SOURCE_ENCODED_PATH_PREFIX : DebugContentProvider.SOURCE_PATH_PREFIX) 
+					+ scriptUri));
+		} catch (FileNotFoundException e) {
+			Log.d(TAG, "loadScriptResourceById - not found: " + scriptUri);
+			return null;
+		}
 		
 		String resourceContent=null;
-		if (cursor != null) {
-			if (cursor.moveToFirst()) {
-				resourceContent = cursor.getString(0);
+		Reader reader = new InputStreamReader(in);
+		try {
+			StringBuilder content = new StringBuilder();
+			char[] buffer = new char[8192];
+			int len;
+			while ((len = reader.read(buffer)) > 0) {
+				content.append(buffer, 0, len);
 			}
-			cursor.close();
+			resourceContent = content.toString();
+		} finally {
+			reader.close();
 		}
 		
 		Log.d(TAG, "loadScriptResourceById - length: " + (resourceContent != null ? resourceContent.length() : 0));
@@ -1,5 +1,6 @@
 package org.jshybugger.server;
 
+import org.jshybugger.DebugContentProvider;
 import org.json.JSONException;
 import org.json.JSONObject;
 import org.json.JSONStringer;
@@ -58,4 +59,36 @@ public class AndroidDebuggerMsgHandler extends DebuggerMsgHandler {
 			}
 		});*/				
 	}	
+
+	/**
+	 * Process "Debugger.setScriptInstrumentation" messages.
+	 * Stores the instrumentation level for the script in the content provider, the level is used on the next page load.
+	 *
+	 * @param conn the websocket connection
+	 * @param message the JSON message
+	 * @throws JSONException some JSON exception
+	 */
+	@Override
+	protected void setScriptInstrumentation(final WebSocketConnection conn,
+			final JSONObject message)  throws JSONException {
+		
+		ContentValues values = new ContentValues();
+		values.put(DebugContentProvider.INSTRUMENTATION_LEVEL, message.getJSONObject("params").getString("level"));
+		
+		Uri uri = Uri.parse(((AndroidDebugSession)this.debugSession).PROVIDER_PROTOCOL + message.getJSONObject("params").getString("scriptId"));
+		
+		try {
+			((AndroidDebugSession)debugSession).application.getContentResolver().update(uri, values, null, null);
+			sendAckMessage(conn, message);
+		} catch (RuntimeException rex) {
+			
+			conn.send(new JSONStringer().object()
+					.key("id").value(message.getInt("id"))
+					.key("error").object()
+						.key("code").value(-32000)
+						.key("message").value(rex.getMessage())
+						.endObject()
+					.endObject().toString());
+		}
+	}
 }
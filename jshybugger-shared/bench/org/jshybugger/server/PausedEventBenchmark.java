@@ -0,0 +1,189 @@
+/*
+ * Copyright 2013 Wolfgang Flohr-Hochbichler (developer@jshybugger.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jshybugger.server;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONStringer;
+import org.webbitserver.WebSocketConnection;
+
+/**
+ * The PausedEventBenchmark measures the CPU time the debug service spends on a "Debugger.paused" event 
+ * of the page, from the received channel frame to the frontend message.
+ * The parsed path decodes envelope and payload and serializes the event again, the raw path splits the 
+ * frame header and passes the payload through.
+ * 
+ * Usage: java -cp <shared and bench classes>:lib/* org.jshybugger.server.PausedEventBenchmark [iterations] [callFrames]
+ */
+public class PausedEventBenchmark {
+
+	/** The number of sent characters, keeps the JIT from removing the work. */
+	private static long sentBytes;
+	
+	/**
+	 * The main method.
+	 *
+	 * @param args iterations and number of call frames, optional
+	 * @throws Exception the exception
+	 */
+	public static void main(String[] args) throws Exception {
+		int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+		int callFrames = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+		
+		MessageHandler handler = new DebugSession() {
+			
+			@Override
+			public String loadScriptResourceById(String scriptUri, boolean encode) throws IOException {
+				return null;
+			}
+		}.getMessageHandler("Debugger");
+		WebSocketConnection conn = createConnection();
+		
+		String payload = createPausedPayload(callFrames);
+		String envelope = new JSONStringer().object()
+				.key("op").value("send")
+				.key("path").value("Debugger.paused")
+				.key("data").value(payload)
+				.endObject().toString();
+		String frame = "send Debugger.paused 0\n" + payload;
+		
+		System.out.println("paused payload: " + payload.length() + " chars, " + callFrames + " call frames");
+		for (int round = 0; round < 5; round++) {
+			long parsed = measureParsed(handler, conn, envelope, iterations);
+			long raw = measureRaw(handler, conn, frame, iterations);
+			System.out.println("round " + round 
+					+ ": parsed " + parsed / iterations / 1000 + " us/event"
+					+ ", raw " + raw / iterations / 1000 + " us/event"
+					+ ", saved " + (parsed - raw) / iterations / 1000 + " us/event");
+		}
+		System.out.println("(" + sentBytes + " bytes sent)");
+	}
+
+	/**
+	 * Measures the parsed path: envelope and payload are decoded, the event is serialized again.
+	 *
+	 * @param handler the debugger message handler
+	 * @param conn the frontend connection
+	 * @param envelope the JSON envelope with the serialized payload
+	 * @param iterations the number of events
+	 * @return the CPU time in nanoseconds
+	 * @throws JSONException the jSON exception
+	 */
+	private static long measureParsed(MessageHandler handler, WebSocketConnection conn, String envelope, int iterations) throws JSONException {
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		long start = threads.getCurrentThreadCpuTime();
+		for (int i = 0; i < iterations; i++) {
+			JSONObject message = new JSONObject(envelope);
+			handler.onSendMessage(conn, "paused", new JSONObject(message.getString("data")));
+		}
+		return threads.getCurrentThreadCpuTime() - start;
+	}
+	
+	/**
+	 * Measures the raw path: the frame header is split, the payload is passed through.
+	 *
+	 * @param handler the debugger message handler
+	 * @param conn the frontend connection
+	 * @param frame the channel frame
+	 * @param iterations the number of events
+	 * @return the CPU time in nanoseconds
+	 * @throws JSONException the jSON exception
+	 */
+	private static long measureRaw(MessageHandler handler, WebSocketConnection conn, String frame, int iterations) throws JSONException {
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		long start = threads.getCurrentThreadCpuTime();
+		for (int i = 0; i < iterations; i++) {
+			// same split as BrowserChannelHandler
+			int headerEnd = frame.indexOf('\n');
+			String[] header = frame.substring(0, headerEnd).split(" ");
+			String path = header[1];
+			handler.onSendRawMessage(conn, path.substring(path.indexOf('.') + 1), new RawJSON(frame.substring(headerEnd + 1)));
+		}
+		return threads.getCurrentThreadCpuTime() - start;
+	}
+	
+	/**
+	 * Creates a paused payload like the page runtime sends it.
+	 *
+	 * @param callFrames the number of call frames
+	 * @return the serialized payload
+	 * @throws JSONException the jSON exception
+	 */
+	private static String createPausedPayload(int callFrames) throws JSONException {
+		JSONStringer json = new JSONStringer();
+		json.object().key("callFrames").array();
+		for (int i = 0; i < callFrames; i++) {
+			json.object()
+				.key("callFrameId").value("{\"ordinal\":" + i + ",\"injectedScriptId\":1}")
+				.key("functionName").value("handler" + i)
+				.key("location").object()
+					.key("scriptId").value("http://localhost/js/app" + i + ".js")
+					.key("lineNumber").value(100 + i)
+					.key("columnNumber").value(4)
+				.endObject()
+				.key("scopeChain").array();
+			for (String type : new String[] { "local", "closure", "global" }) {
+				json.object()
+					.key("type").value(type)
+					.key("object").object()
+						.key("type").value("object")
+						.key("objectId").value("{\"injectedScriptId\":1,\"id\":" + (i * 3) + "}")
+						.key("className").value("Object")
+						.key("description").value(type + " scope of handler" + i)
+					.endObject()
+				.endObject();
+			}
+			json.endArray()
+				.key("this").object()
+					.key("type").value("object")
+					.key("objectId").value("{\"injectedScriptId\":1,\"id\":" + (1000 + i) + "}")
+					.key("className").value("Window")
+					.key("description").value("Window")
+				.endObject()
+			.endObject();
+		}
+		return json.endArray()
+				.key("reason").value("other")
+				.key("data").value(null)
+				.endObject().toString();
+	}
+	
+	/**
+	 * Creates a frontend connection which only counts the sent bytes.
+	 *
+	 * @return the connection
+	 */
+	private static WebSocketConnection createConnection() {
+		return (WebSocketConnection) Proxy.newProxyInstance(WebSocketConnection.class.getClassLoader(), 
+				new Class<?>[] { WebSocketConnection.class }, new InvocationHandler() {
+			
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				if ("send".equals(method.getName()) && args != null && args[0] instanceof String) {
+					sentBytes += ((String) args[0]).length();
+				}
+				return method.getReturnType() == WebSocketConnection.class ? proxy : null;
+			}
+		});
+	}
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2013 Wolfgang Flohr-Hochbichler (developer@jshybugger.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jshybugger.server;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.Callable;
+import java.util.concurrent.FutureTask;
+
+import org.json.JSONObject;
+import org.webbitserver.WebSocketConnection;
+
+/**
+ * The RoutingBenchmark measures the CPU time of {@link DebugSession#onMessage(WebSocketConnection, String)} 
+ * for a mixed workload of frontend messages - execution control, inspection, constant results and unknown methods.
+ * The webview and the frontend connection are stubs, so the result is the cost of routing and handling 
+ * in the debug service. The JSON parse cost of the messages is measured separately for reference.
+ * 
+ * Usage: java -cp <shared and bench classes>:lib/* org.jshybugger.server.RoutingBenchmark [messages]
+ */
+public class RoutingBenchmark {
+
+	/** The mixed workload. */
+	private static final String[] MESSAGES = {
+		"{\"id\":1,\"method\":\"Debugger.stepOver\"}",
+		"{\"id\":2,\"method\":\"Debugger.resume\"}",
+		"{\"id\":3,\"method\":\"Runtime.getProperties\",\"params\":{\"objectId\":\"{\\\"injectedScriptId\\\":1,\\\"id\\\":7}\",\"ownProperties\":true}}",
+		"{\"id\":4,\"method\":\"Runtime.evaluate\",\"params\":{\"expression\":\"window.location.href\",\"objectGroup\":\"console\",\"returnByValue\":false}}",
+		"{\"id\":5,\"method\":\"Debugger.evaluateOnCallFrame\",\"params\":{\"callFrameId\":\"{\\\"ordinal\\\":0,\\\"injectedScriptId\\\":1}\",\"expression\":\"this\",\"objectGroup\":\"popover\"}}",
+		"{\"id\":6,\"method\":\"Runtime.releaseObjectGroup\",\"params\":{\"objectGroup\":\"popover\"}}",
+		"{\"id\":7,\"method\":\"Runtime.callFunctionOn\",\"params\":{\"objectId\":\"{\\\"injectedScriptId\\\":1,\\\"id\\\":7}\",\"functionDeclaration\":\"function() { return this; }\"}}",
+		"{\"id\":8,\"method\":\"Debugger.canSetScriptSource\"}",
+		"{\"id\":9,\"method\":\"Debugger.stepInto\"}",
+		"{\"id\":10,\"method\":\"Unknown.method\",\"params\":{}}"
+	};
+	
+	/** The number of sent characters, keeps the JIT from removing the work. */
+	private static long sentBytes;
+	
+	/**
+	 * The main method.
+	 *
+	 * @param args the number of messages per round, optional
+	 * @throws Exception the exception
+	 */
+	public static void main(String[] args) throws Exception {
+		final int messages = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+		
+		final DebugSession session = new DebugSession() {
+			
+			@Override
+			public String loadScriptResourceById(String scriptUri, boolean encode) throws IOException {
+				return null;
+			}
+		};
+		session.setBrowserInterface((BrowserInterface) createStub(BrowserInterface.class));
+		final WebSocketConnection conn = (WebSocketConnection) createStub(WebSocketConnection.class);
+		
+		for (int round = 0; round < 5; round++) {
+			// onMessage runs the handlers inline on the session event loop
+			FutureTask<long[]> task = new FutureTask<long[]>(new Callable<long[]>() {
+				
+				@Override
+				public long[] call() throws Exception {
+					ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+					long start = threads.getCurrentThreadCpuTime();
+					for (int i = 0; i < messages; i++) {
+						session.onMessage(conn, MESSAGES[i % MESSAGES.length]);
+					}
+					long routing = threads.getCurrentThreadCpuTime() - start;
+					
+					start = threads.getCurrentThreadCpuTime();
+					for (int i = 0; i < messages; i++) {
+						sentBytes += new JSONObject(MESSAGES[i % MESSAGES.length]).length();
+					}
+					return new long[] { routing, threads.getCurrentThreadCpuTime() - start };
+				}
+			});
+			session.getExecutor().execute(task);
+			long[] result = task.get();
+			
+			System.out.println("round " + round 
+					+ ": onMessage " + result[0] / messages + " ns/msg"
+					+ ", JSON parse " + result[1] / messages + " ns/msg");
+		}
+		System.out.println("(" + sentBytes + " bytes sent)");
+		System.exit(0);
+	}
+	
+	/**
+	 * Creates a stub which ignores all calls, the frontend connection counts the sent bytes.
+	 *
+	 * @param type the stub interface
+	 * @return the stub
+	 */
+	private static Object createStub(final Class<?> type) {
+		return Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type }, new InvocationHandler() {
+			
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				if ("send".equals(method.getName()) && args != null && args[0] instanceof String) {
+					sentBytes += ((String) args[0]).length();
+				}
+				// the connection is its own outbound buffer
+				if (method.getReturnType() == type || "data".equals(method.getName())) {
+					return proxy;
+				}
+				return method.getReturnType() == boolean.class ? Boolean.FALSE : null;
+			}
+		});
+	}
+}
@@ -45,6 +45,20 @@ window.JsHybugger = (function() {
 	var NOT_WHITESPACE_MATCHER = /[^\s]/;
 	var FRAME_ID = new String(new Date().getTime() % 3600000);
 	var PROTOCOL = 'content://jsHybugger.org/';
+	var MAX_BATCH_BYTES = 256000;
+	var OUTBOX_MAX_EVENTS = 200;
+	var OUTBOX_MAX_BYTES = 64000;
+	var outbox = [];
+	var outboxBytes = 0;
+	var outboxFlushScheduled = false;
+	var domStorageEventLimit = JsHybuggerConfig.domStorageEventLimit || 1000;
+	var domStorageOverflowPolicy = JsHybuggerConfig.domStorageOverflowPolicy || 'dropNewest';
+	var domStorageWindowStart = 0;
+	var domStorageEvents = 0;
+	var domStorageDropped = 0;
+	var browserChannel = null;
+	var lastBatchId = 0;
+	var ackedBatchId = 0;
 	
 	var url = JsHybuggerConfig.endpoint;
 	
@@ -53,24 +67,117 @@ window.JsHybugger = (function() {
 		window['JsHybuggerNI'] = {
 			sendToDebugService : function(method, data) {
 				
-				sendXmlData('sendToDebugService', { arg0: method, arg1: data});
+				if (!sendOverChannel('send', method, data)) {
+					sendRawXmlData('sendToDebugService?path=' + encodeURIComponent(method), data);
+				}
+			},
+			
+			sendBatchToDebugService : function(data) {
+				
+				if (!sendOverChannel('sendBatch', '-', data)) {
+					sendRawXmlData('sendBatchToDebugService', data);
+				}
 			},
 			
 			sendReplyToDebugService : function(id, data) {
 
-				return sendXmlData('sendReplyToDebugService', { arg0: id, arg1: data});
+				if (!sendOverChannel('reply', id, data)) {
+					return sendRawXmlData('sendReplyToDebugService?replyId=' + id, data);
+				}
 			},
 			
 			getQueuedMessage : function(flag) {
 				var data = sendXmlData('getQueuedMessage', { arg0: flag});
 				
 				return data;
+			},
+			
+			getQueuedMessages : function(flag, maxBytes) {
+				
+				return sendXmlData('getQueuedMessages', { arg0: flag, arg1: maxBytes});
 			}
 		};
 		
-		openPushChannel();
+		openBrowserChannel();
 	}
 
+	/**
+	 * Opens the WebSocket channel to the debugging server, the XHR push channel is used 
+	 * if WebSockets aren't available or the channel is closed.
+	 */
+    function openBrowserChannel() {
+    	
+    	var channel;
+    	try {
+    		channel = window.WebSocket ? new WebSocket(url.replace(/^http/, 'ws') + 'channel') : null;
+    	} catch (ex) {
+    		channel = null;
+    	}
+    	if (!channel) {
+    		openPushChannel();
+    		return;
+    	}
+    	
+    	channel.onopen = function() {
+    		browserChannel = channel;
+    	};
+    	channel.onmessage = function(event) {
+    		processPushedBatch(parseSafe(event.data));
+    	};
+    	channel.onclose = function() {
+    		if (browserChannel === channel) {
+    			browserChannel = null;
+    		}
+    		openPushChannel();
+    	};
+    }
+    
+	/**
+	 * Sends a message over the WebSocket channel. While the page is blocked, messages are sent with XHR
+	 * because channel traffic is only guaranteed to flow while the event loop is running.
+	 * The frame is a header line 'op arg ack' followed by the unchanged payload, the acknowledgement 
+	 * of processed batches is added to every frame.
+	 * @param {String} op channel operation
+	 * @param {String} arg operation argument, path or reply id
+	 * @param {String} payload serialized JSON payload
+	 * @return {boolean} true if the message was sent
+	 */
+    function sendOverChannel(op, arg, payload) {
+    	if (!browserChannel || browserChannel.readyState != 1 || blockModeActive) {
+    		return false;
+    	}
+    	ackedBatchId = lastBatchId;
+    	browserChannel.send(op + ' ' + arg + ' ' + ackedBatchId + '\n' + (payload || ''));
+    	return true;
+    }
+    
+    /**
+     * Acknowledges the processed batches unless the acknowledgement was sent with another message.
+     */
+    function acknowledgeBatches() {
+    	if (lastBatchId > ackedBatchId) {
+    		sendOverChannel('ack', '-');
+    	}
+    }
+    
+	/**
+	 * Processes a batch pushed by the debugging server and acknowledges it. Batches which have 
+	 * already been received with a message request are skipped.
+	 * @param {object} batch the batch with id and messages
+	 */
+    function processPushedBatch(batch) {
+    	if (!batch) return;
+    	
+    	if (batch.batch > lastBatchId) {
+    		lastBatchId = batch.batch;
+    		for (var i = 0; i < batch.messages.length; i++) {
+    			processCommand(batch.messages[i], null);
+    		}
+    		// replies usually carry the acknowledgement, no extra frame is needed then
+    		setTimeout(acknowledgeBatches, 0);
+    	}
+    }
+    
     function openPushChannel() {
     	
 		var pushChannel = new XMLHttpRequest();
@@ -89,6 +196,10 @@ window.JsHybugger = (function() {
 	}
     
     function sendXmlData(cmd, data) {
+    	return sendRawXmlData(cmd, stringifySafe(data));
+    }
+    
+    function sendRawXmlData(cmd, body) {
     	var response;
     	var xmlObj = new XMLHttpRequest();
     	xmlObj.onreadystatechange = function() {
@@ -98,7 +209,7 @@ window.JsHybugger = (function() {
 		}
 		xmlObj.open ('POST', url + cmd, false);
 		try {
-			xmlObj.send (stringifySafe(data));
+			xmlObj.send (body);
 		} catch (e) {
 			console.log(e);
 		}
@@ -112,13 +223,21 @@ window.JsHybugger = (function() {
     function processMessages(block) {
 		if (!block && blockModeActive) return;
 		
-    	var msg = null;
+    	var msgs = null, i;
     	if (block) {
     		try {
 	    		blockModeActive = true;
-		       	while ((msg = JsHybuggerNI.getQueuedMessage(true)) != null) {
-		       		if (!processCommand(parseSafe(msg), callStack[callStack.length-1])) {
-		       			break;
+	    		// timers don't fire while the page is paused, queued events are flushed before each wait
+	    		blocking:
+		       	for (flushOutbox(); (msgs = getQueuedMessages(true)) != null; flushOutbox()) {
+		       		for (i = 0; i < msgs.length; i++) {
+			       		if (!processCommand(msgs[i], callStack[callStack.length-1])) {
+			       			// the rest of the batch is handled like pending messages
+			       			for (i++; i < msgs.length; i++) {
+			       				processCommand(msgs[i], callStack[callStack.length-1]);
+			       			}
+			       			break blocking;
+			       		}
 		       		}
 		       	}
     		} finally {
@@ -127,11 +246,56 @@ window.JsHybugger = (function() {
     	}
     	
     	// before returning process all pending queue messages
-    	while ((msg = JsHybuggerNI.getQueuedMessage(false)) != null) {
-    		processCommand(parseSafe(msg), block ? callStack[callStack.length-1] : null);
+    	processPendingMessages(block ? callStack[callStack.length-1] : null);
+    }
+    
+	/**
+	 * Processes all pending debugger queue messages without blocking.
+	 * @param {object} stack scope for resolving variables on call stack
+	 */
+    function processPendingMessages(stack) {
+    	var msgs, i;
+    	while ((msgs = getQueuedMessages(false)) != null) {
+    		for (i = 0; i < msgs.length; i++) {
+    			processCommand(msgs[i], stack);
+    		}
     	}
     }
     
+	/**
+	 * Fetches the queued debugger messages, all pending messages are fetched with one bridge call.
+	 * @param {boolean} wait call will block until a message is available
+	 * @return {array} messages or null if no message is pending
+	 */
+    function getQueuedMessages(wait) {
+    	var data;
+    	if (JsHybuggerNI.getQueuedMessages) {
+    		data = JsHybuggerNI.getQueuedMessages(wait, MAX_BATCH_BYTES);
+    		data = data != null ? parseSafe(data) : null;
+    		return data && data.redelivered ? unwrapRedeliveredBatches(data.redelivered) : data;
+    	}
+    	
+    	// native interface without batch support
+    	data = JsHybuggerNI.getQueuedMessage(wait);
+    	return data != null ? [ parseSafe(data) ] : null;
+    }
+    
+	/**
+	 * Returns the messages of pushed batches which the page hasn't processed yet.
+	 * @param {array} batches the redelivered batches
+	 * @return {array} messages
+	 */
+    function unwrapRedeliveredBatches(batches) {
+    	var msgs = [], i;
+    	for (i = 0; i < batches.length; i++) {
+    		if (batches[i].batch > lastBatchId) {
+    			lastBatchId = batches[i].batch;
+    			msgs = msgs.concat(batches[i].messages);
+    		}
+    	}
+    	return msgs;
+    }
+    
     /**
      * Send message to debugging server for processing by message handlers.
 	 * @param {String} path message handler name
@@ -141,12 +305,191 @@ window.JsHybugger = (function() {
     function sendToDebugService(path, payload) {
 		
         try {
+        	// keep the event order - queued events go first
+        	flushOutbox();
+        	
        		return parseSafe(JsHybuggerNI.sendToDebugService(path, stringifySafe(payload)));
         } catch (ex) {
            // console.error('JsHybugger sendToDebugService failed: ' + ex.toString());
         }
     }
     
+    /**
+     * Send reply to debugging server, queued events go first.
+	 * @param {number} replyId the reply id of the command
+	 * @param {String} data serialized JSON reply
+     */
+    function sendReplyToDebugService(replyId, data) {
+    	// i.e. console output of an evaluation while the page is paused, timers don't fire then
+    	flushOutbox();
+    	JsHybuggerNI.sendReplyToDebugService(replyId, data);
+    }
+    
+    /**
+     * Queue a fire-and-forget event for the debugging server. 
+     * Queued events are sent in one batch after the current task, before the next synchronous 
+     * message or when the outbox is full.
+	 * @param {String} path message handler name
+	 * @param {object} payload JSON payload
+	 * @param {function} merge optional function(queuedPayload, payload) which returns true if 
+	 *                   payload was merged into the last queued event of the same path
+     */
+    function postToDebugService(path, payload, merge) {
+    	
+    	var last = outbox.length > 0 ? outbox[outbox.length-1] : null;
+    	if (last && merge && last.path == path) {
+    		// merge into a private copy of the queued payload, the caller might still modify the original
+    		last.data = last.data || parseSafe(last.json);
+    		if (last.data && merge(last.data, payload)) {
+    			// serialize now - the merged payload might be modified after this call
+    			last.json = stringifySafe(last.data);
+    			return;
+    		}
+    	}
+
+    	// serialize now - the payload might be modified after this call
+    	var json = stringifySafe(payload);
+    	if (last && last.path == path && last.repeatable && last.originalJson == json) {
+    		last.repeatCount++;
+    		last.json = null;
+    		return;
+    	}
+    	
+    	outbox.push({ 
+    		path : path, 
+    		data : null, 
+    		json : json, 
+    		originalJson : json,
+    		repeatable : path == 'Console.messageAdded',
+    		repeatCount : 1
+    	});
+    	outboxBytes += json ? json.length : 0;
+    	
+    	if (outbox.length >= OUTBOX_MAX_EVENTS || outboxBytes >= OUTBOX_MAX_BYTES) {
+    		flushOutbox();
+    	} else if (!outboxFlushScheduled) {
+    		outboxFlushScheduled = true;
+    		setTimeout(flushOutbox, 0);
+    	}
+    }
+    
+    /**
+     * Send all queued events to the debugging server.
+     */
+    function flushOutbox() {
+    	outboxFlushScheduled = false;
+    	if (outbox.length == 0) {
+    		return;
+    	}
+    	
+    	var events = outbox, batch = [], i, event;
+    	outbox = [];
+    	outboxBytes = 0;
+    	
+    	for (i = 0; i < events.length; i++) {
+    		event = events[i];
+    		if (event.json == null) {
+    			// repeated event - patch the repeat count into the payload serialized when it was queued
+    			var data = parseSafe(event.originalJson);
+    			if (data && data.message) {
+    				data.message.repeatCount = event.repeatCount;
+    			}
+    			event.json = stringifySafe(data);
+    		}
+    	}
+    	
+        try {
+        	if (JsHybuggerNI.sendBatchToDebugService) {
+        		// one 'path payload' line per event, serialized JSON never contains a line break 
+        		for (i = 0; i < events.length; i++) {
+        			batch.push(events[i].path + ' ' + events[i].json);
+        		}
+        		JsHybuggerNI.sendBatchToDebugService(batch.join('\n'));
+        	} else {
+        		// native interface without batch support
+        		for (i = 0; i < events.length; i++) {
+        			JsHybuggerNI.sendToDebugService(events[i].path, events[i].json);
+        		}
+        	}
+        } catch (ex) {
+           // console.error('JsHybugger flushOutbox failed: ' + ex.toString());
+        }
+    }
+    
+    /**
+     * Queue a DOMStorage event, at most domStorageEventLimit events per second are sent.
+     * If the limit is reached, the overflow policy 'dropNewest' drops the new event, 'dropOldest' drops the 
+     * oldest DOMStorage event which is still queued in the outbox. Dropped events are reported with a 
+     * console warning after the current task.
+	 * @param {String} path message handler name
+	 * @param {object} payload JSON payload
+	 * @param {function} merge optional merge function, see postToDebugService
+     */
+    function postStorageEvent(path, payload, merge) {
+    	var now = new Date().getTime();
+    	if (now - domStorageWindowStart >= 1000) {
+    		domStorageWindowStart = now;
+    		domStorageEvents = 0;
+    	}
+    	
+    	if (domStorageEvents >= domStorageEventLimit) {
+    		if (domStorageDropped++ == 0) {
+    			setTimeout(reportDroppedStorageEvents, 0);
+    		}
+    		// the queued event is replaced, the number of sent events doesn't change
+    		if (domStorageOverflowPolicy == 'dropOldest' && dropOldestStorageEvent()) {
+    			postToDebugService(path, payload, merge);
+    		}
+    		return;
+    	}
+    	domStorageEvents++;
+    	postToDebugService(path, payload, merge);
+    }
+    
+    /**
+     * Remove the oldest DOMStorage item event from the outbox.
+     * @return {boolean} true if an event was removed
+     */
+    function dropOldestStorageEvent() {
+    	for (var i = 0; i < outbox.length; i++) {
+    		if (outbox[i].path.indexOf('DOMStorage.domStorageItem') == 0 && outbox[i].path != 'DOMStorage.domStorageItemsCleared') {
+    			outboxBytes -= outbox[i].originalJson ? outbox[i].originalJson.length : 0;
+    			outbox.splice(i, 1);
+    			return true;
+    		}
+    	}
+    	return false;
+    }
+    
+    /**
+     * Send a console warning about dropped DOMStorage events.
+     */
+    function reportDroppedStorageEvents() {
+    	var dropped = domStorageDropped;
+    	domStorageDropped = 0;
+    	
+    	postToDebugService('Console.messageAdded', { 
+        	message : {
+        		level: 'warning',
+        		repeatCount : 1,
+        		source : 'other',
+        		text : dropped + ' DOMStorage events dropped, refresh the storage view',
+        		type : 'log'
+        	}
+    	});
+    }
+    
+    /**
+     * Merges consecutive updates of the same storage item, the first old value and the last new value are kept.
+     */
+    function mergeStorageItemUpdate(queued, update) {
+    	if (queued.key === update.key && queued.storageId.isLocalStorage == update.storageId.isLocalStorage) {
+    		queued.newValue = update.newValue;
+    		return true;
+    	}
+    	return false;
+    }
+    
     /**
      * Wrap browser console interface and dispatch messages to the debug server.
      */
@@ -231,7 +574,7 @@ window.JsHybugger = (function() {
                 }
 
                 
-                sendToDebugService('Console.messageAdded', { 
+                postToDebugService('Console.messageAdded', { 
                 	message : {
                 		level: levels[f],
                 		line : lastLine,
@@ -274,14 +617,14 @@ window.JsHybugger = (function() {
 	        	case 'setPauseOnExceptions':
 	        		return runSafe('setPauseOnExceptions', function() {
 	        			pauseOnExceptionsState = cmd.data.params.state;
-	        			JsHybuggerNI.sendReplyToDebugService(cmd.replyId, stringifySafe({}));
+	        			sendReplyToDebugService(cmd.replyId, stringifySafe({}));
 	        		}, true);
 
 	        	case 'setBreakpointsActive':
 	        		
 	        		return runSafe('setBreakpointsActive', function() {
 	        			breakpointsActive = cmd.data.params.active;
-	        			JsHybuggerNI.sendReplyToDebugService(cmd.replyId, stringifySafe({}));
+	        			sendReplyToDebugService(cmd.replyId, stringifySafe({}));
 	        		}, true);
 	        		
 	        	case 'callFunctionOn':
@@ -298,7 +641,7 @@ window.JsHybugger = (function() {
         					}
 	        			};
 	        			
-	        			JsHybuggerNI.sendReplyToDebugService(cmd.replyId, stringifySafe(response));
+	        			sendReplyToDebugService(cmd.replyId, stringifySafe(response));
 	        			
 	        		}, true);
 	        		
@@ -337,17 +680,17 @@ window.JsHybugger = (function() {
 	        	    	for (var i = 0; i < imgs.length; i++) {
 	        	    		var src = imgs[i].src;
 	        	    		if (src && src.indexOf(cmd.data.params.url) >= 0) {
-	        	    			JsHybuggerNI.sendReplyToDebugService(cmd.replyId, stringifySafe({base64Encoded : true}));
+	        	    			sendReplyToDebugService(cmd.replyId, stringifySafe({base64Encoded : true}));
 	        	    			return;
 	        	    		}
 	        	    	}
-    	    			JsHybuggerNI.sendReplyToDebugService(cmd.replyId, stringifySafe({base64Encoded : false}));
+    	    			sendReplyToDebugService(cmd.replyId, stringifySafe({base64Encoded : false}));
 	        	    	
 	        		}, true);
 	        		
 	        	case 'getResourceTree':
 	        		return runSafe('getResourceTree', function() {
-	        			JsHybuggerNI.sendReplyToDebugService(cmd.replyId, stringifySafe(getResourceTree(cmd)));
+	        			sendReplyToDebugService(cmd.replyId, stringifySafe(getResourceTree(cmd)));
 	        			
 	        			// for version 2.0 
 	        			//processStylesheets();
@@ -358,7 +701,7 @@ window.JsHybugger = (function() {
 	        		return runSafe('getDOMStorageItems', function() {
 	        			var response = { entries : getDOMStorageItems(cmd.data.params.storageId.isLocalStorage ? localStorage : sessionStorage) };
 
-	        			JsHybuggerNI.sendReplyToDebugService(cmd.replyId, stringifySafe(response));
+	        			sendReplyToDebugService(cmd.replyId, stringifySafe(response));
 	        		}, true);
 
 	        	case 'setDOMStorageItem':
@@ -369,7 +712,13 @@ window.JsHybugger = (function() {
 	        				sessionStorage.setItem(cmd.data.params.key, cmd.data.params.value);
 	        			} 
 
-	        			JsHybuggerNI.sendReplyToDebugService(cmd.replyId, stringifySafe({}));
+	        			sendReplyToDebugService(cmd.replyId, stringifySafe({}));
+	        		}, true);
+
+	        	case 'storage-limits':
+	        		return runSafe('storage-limits', function() {
+	        			domStorageEventLimit = cmd.data.limit;
+	        			domStorageOverflowPolicy = cmd.data.policy;
 	        		}, true);
 
 	        	case 'removeDOMStorageItem':
@@ -380,7 +729,7 @@ window.JsHybugger = (function() {
 	        				sessionStorage.removeItem(cmd.data.params.key);
 	        			} 
 
-	        			JsHybuggerNI.sendReplyToDebugService(cmd.replyId, stringifySafe({}));
+	        			sendReplyToDebugService(cmd.replyId, stringifySafe({}));
 	        		}, true);
 
 	        	case 'getProperties':
@@ -396,42 +745,34 @@ window.JsHybugger = (function() {
 	        				line : cmd.data.lineNumber
 	        			};
 	        			
-		                JsHybuggerNI.sendReplyToDebugService(cmd.replyId, stringifySafe({ }));
+		                sendReplyToDebugService(cmd.replyId, stringifySafe({ }));
 	        		}, false);
 	        			
-	            case 'breakpoint-set':
-	        		return runSafe('breakpoint-set',function() {
+	            case 'breakpoints-sync':
+	        		return runSafe('breakpoints-sync', function() {
+	        			// replaces all breakpoints of the script
 		                var file = cmd.data.url;
-		                var line = cmd.data.lineNumber;
-		                if (!breakpoints[file]) {
-		                    breakpoints[file] = {};
+		                for (var line in breakpoints[file]) {
+		                	delete breakpointsById[breakpoints[file][line]];
 		                }
-		                var breakpointId= file + ":" + line;
-		                breakpoints[file][line] = breakpointId;
+		                breakpoints[file] = {};
 		                
-		                //console.log("set-breakpoint: " + ((breakpoints[file] && breakpoints[file][line]) || false ) + ", file: " + file + ", line: "+ line);
-		                breakpointsById[breakpointId] = cmd.data;
-		                JsHybuggerNI.sendReplyToDebugService(cmd.replyId, stringifySafe({ breakpointId : breakpointId, lineNumber : line }));
-	        		}, true);
-	                
-	
-	            case 'breakpoint-remove':
-	        		return runSafe('breakpoint-remove', function() {
-		                var data = breakpointsById[cmd.data.breakpointId];
-		                if (data) {
-		                	//console.log("remove-breakpoint: " + cmd.data.breakpointId);
-		                	
-			                delete breakpointsById[cmd.data.breakpointId];
-			                delete breakpoints[data.url][data.lineNumber]; 
-		                	                
-			                JsHybuggerNI.sendReplyToDebugService(cmd.replyId, stringifySafe({ breakpointId : cmd.data.breakpointId}));
+		                for (var i = 0; i < cmd.data.breakpoints.length; i++) {
+		                	var breakpoint = cmd.data.breakpoints[i];
+			                var breakpointId= file + ":" + breakpoint.lineNumber;
+			                breakpoints[file][breakpoint.lineNumber] = breakpointId;
+			                breakpointsById[breakpointId] = { url : file, lineNumber : breakpoint.lineNumber, condition : breakpoint.condition };
+		                }
+		                
+		                if (cmd.replyId) {
+		                	sendReplyToDebugService(cmd.replyId, stringifySafe({ }));
 		                }
 	        		}, true);
-	            
+	                
 	            case 'breakpoint-resume':
 	        		return runSafe('breakpoint-resume', function() {
 	        			shouldBreak = function() { return false; };
-		                JsHybuggerNI.sendReplyToDebugService(cmd.replyId, stringifySafe({ }));
+		                sendReplyToDebugService(cmd.replyId, stringifySafe({ }));
 	        		}, false);
 	            
 	            case 'breakpoint-step-over':
@@ -441,13 +782,13 @@ window.JsHybugger = (function() {
 		                        return depth <= oldDepth;
 		                    };
 		                })(callStackDepth);
-		                JsHybuggerNI.sendReplyToDebugService(cmd.replyId, stringifySafe({ }));
+		                sendReplyToDebugService(cmd.replyId, stringifySafe({ }));
 	        		}, false);
 	
 	            case 'breakpoint-step-into':
 	        		return runSafe('breakpoint-step-into', function() {
 	        			shouldBreak = function() { return true; };
-		                JsHybuggerNI.sendReplyToDebugService(cmd.replyId, stringifySafe({ }));
+		                sendReplyToDebugService(cmd.replyId, stringifySafe({ }));
 	        		}, false);
 	                
 	            case 'breakpoint-step-out':
@@ -457,14 +798,14 @@ window.JsHybugger = (function() {
 		                        return depth < oldDepth;
 		                    };
 		                })(callStackDepth);
-		                JsHybuggerNI.sendReplyToDebugService(cmd.replyId, stringifySafe({ }));
+		                sendReplyToDebugService(cmd.replyId, stringifySafe({ }));
 	        		}, false);
 	                
 	            case 'page-reload':
 	            	return runSafe('page-reload', function() {
 	        			shouldBreak = function() { return false; };
 	        			breakpoints = {};
-		                JsHybuggerNI.sendReplyToDebugService(cmd.replyId, stringifySafe({ }));
+		                sendReplyToDebugService(cmd.replyId, stringifySafe({ }));
 
 		                setTimeout(function() {
     		                location.reload();
@@ -487,7 +828,7 @@ window.JsHybugger = (function() {
 	            	        		}
 	            	        		tableNames.push(row.name);
 	            	        	}
-	    		                JsHybuggerNI.sendReplyToDebugService(cmd.replyId, stringifySafe({ tableNames:tableNames}));
+	    		                sendReplyToDebugService(cmd.replyId, stringifySafe({ tableNames:tableNames}));
 	            	        });
 	            	    });
 	            			
@@ -515,7 +856,7 @@ window.JsHybugger = (function() {
 	            	        		}
 	            	        	}
 	            	        	
-	    		                JsHybuggerNI.sendReplyToDebugService(cmd.replyId, stringifySafe({ columnNames:colNames, values:values}));
+	    		                sendReplyToDebugService(cmd.replyId, stringifySafe({ columnNames:colNames, values:values}));
 	            	        });
 	            	        
 	            	    });
@@ -540,7 +881,7 @@ window.JsHybugger = (function() {
 	        		if (fctn) {
 		        		return runSafe(cmd.command, function() {
 		        			var rVal = fctn(cmd.data.params);
-		        			JsHybuggerNI.sendReplyToDebugService(cmd.replyId, stringifySafe(rVal));
+		        			sendReplyToDebugService(cmd.replyId, stringifySafe(rVal));
 		        		}, true);
 	        		} else {	        		
 	        			console.warn('JsHybugger unknown command received:' + cmd.command);
@@ -1097,7 +1438,7 @@ window.JsHybugger = (function() {
 			}
 		}		
         
-        JsHybuggerNI.sendReplyToDebugService(cmd.replyId, stringifySafe({ result : results }));
+        sendReplyToDebugService(cmd.replyId, stringifySafe({ result : results }));
     }
     
     /**
@@ -1186,7 +1527,7 @@ window.JsHybugger = (function() {
         } catch (ex) {
             evalResult = ex.toString();
         }  
-        JsHybuggerNI.sendReplyToDebugService(cmd.replyId, stringifySafe(response));
+        sendReplyToDebugService(cmd.replyId, stringifySafe(response));
     }
     
 	function stringifySafe(obj){
@@ -1269,7 +1610,7 @@ window.JsHybugger = (function() {
     	var callFrames = prepareStackInfo();
         sendToDebugService('Debugger.paused', {
             reason: reason,
-            auxData: auxData,
+            data: auxData,
             url: lastFile,
             lineNumber: lastLine,
             callFrames : callFrames
@@ -1347,22 +1688,23 @@ window.JsHybugger = (function() {
 			var item = this.getItem(key);
 			this.JsHybugger_setItem(key,value);
 			if (item == undefined) {
-				sendToDebugService('DOMStorage.domStorageItemAdded', { storageId : { isLocalStorage : this == localStorage}, key : key, newValue : value});
+				postStorageEvent('DOMStorage.domStorageItemAdded', { storageId : { isLocalStorage : this == localStorage}, key : key, newValue : value});
 			} else {
-				sendToDebugService('DOMStorage.domStorageItemUpdated', { storageId : { isLocalStorage : this == localStorage}, key : key, oldValue : item, newValue : value});
+				postStorageEvent('DOMStorage.domStorageItemUpdated', { storageId : { isLocalStorage : this == localStorage}, key : key, oldValue : item, newValue : value}, mergeStorageItemUpdate);
 			}
 		};
 
 		Storage.prototype.JsHybugger_removeItem = Storage.prototype.removeItem;
 		Storage.prototype.removeItem = function(key) {
 			this.JsHybugger_removeItem(key);
-			sendToDebugService('DOMStorage.domStorageItemRemoved', { storageId : { isLocalStorage : this == localStorage}, key : key});
+			postStorageEvent('DOMStorage.domStorageItemRemoved', { storageId : { isLocalStorage : this == localStorage}, key : key});
 		};
 
 		Storage.prototype.JsHybugger_clear = Storage.prototype.clear;
 		Storage.prototype.clear = function() {
 			this.JsHybugger_clear();
-			sendToDebugService('DOMStorage.domStorageItemsCleared', { storageId : { isLocalStorage : this == localStorage}});
+			// not limited - it resets the storage view
+			postToDebugService('DOMStorage.domStorageItemsCleared', { storageId : { isLocalStorage : this == localStorage}});
 		};
 	}
 	
@@ -1404,9 +1746,7 @@ window.JsHybugger = (function() {
         
 		var cmd = sendToDebugService('GlobalPageLoaded', {  frameId : FRAME_ID  });
        	// before returning - process all pending queue messages 
-       	while ((msg = JsHybuggerNI.getQueuedMessage(false)) != null) {
-       		processCommand(parseSafe(msg),null);
-   		}
+       	processPendingMessages(null);
     };
     
     /**
@@ -1474,11 +1814,13 @@ window.JsHybugger = (function() {
     
     /**
      * Used by the instrumented code to track javascript file loads.
+     * The hash identifies the script source version, it's null for scripts which could not be instrumented.
      */
-    function loadFile(filename, numLines) {
+    function loadFile(filename, numLines, hash) {
     	sendToDebugService('Debugger.scriptParsed', { 
             url: filename,
-            numLines: numLines
+            numLines: numLines,
+            hash: hash
         });
     	
     	// process messages here to make sure all breakpoints are set  
@@ -1488,6 +1830,10 @@ window.JsHybugger = (function() {
     // register on load event handler
     window.addEventListener("load", pageLoaded, false);
     
+    // don't lose queued events when the page is left
+    window.addEventListener("pagehide", flushOutbox, false);
+    window.addEventListener("beforeunload", flushOutbox, false);
+    
     // now send the GlobalInitHybugger message
 	initHybugger();
 
@@ -64,10 +64,36 @@ public class DebugInstrumentator implements NodeVisitor {
 	/** The script uri. */
 	private String scriptURI;
 
+	/** The track statements flag, false will only add call stack tracking. */
+	private final boolean trackStatements;
+	
+	/** The hash of the original script source, reported by JsHybugger.loadFile(). */
+	private String sourceHash;
+
 	/**
 	 * Instantiates a new debug instrumentator.
 	 */
 	public DebugInstrumentator() {
+		this(true);
+	}
+
+	/**
+	 * Instantiates a new debug instrumentator.
+	 *
+	 * @param trackStatements false will only add call stack tracking but no JsHybugger.track() statements
+	 */
+	public DebugInstrumentator(boolean trackStatements) {
+		this.trackStatements = trackStatements;
+	}
+
+	/**
+	 * Sets the hash of the original script source. The hash is passed to JsHybugger.loadFile() so that the 
+	 * debug server can tell if a reloaded script has changed.
+	 *
+	 * @param sourceHash the source hash
+	 */
+	public void setSourceHash(String sourceHash) {
+		this.sourceHash = sourceHash;
 	}
 
 	/* (non-Javadoc)
@@ -178,7 +204,7 @@ public class DebugInstrumentator implements NodeVisitor {
 	 */
 	private void instrumentStatement(AstNode node, boolean debugger) {
 
-		if ((node.getPosition() == 0) || processedLines.contains(node.getLineno()) || (node.getParent() instanceof ForInLoop)) {
+		if (!trackStatements || (node.getPosition() == 0) || processedLines.contains(node.getLineno()) || (node.getParent() instanceof ForInLoop)) {
 			return;
 		}
 		
@@ -193,7 +219,7 @@ public class DebugInstrumentator implements NodeVisitor {
 	 */
 	protected void loadFile(AstRoot node) {
 		prepareStack(node);
-		((TryStatement)node.getFirstChild()).getTryBlock().addChildToFront(makeExpression(makeFunctionCall("JsHybugger.loadFile", scriptURI, node.getEndLineno())));
+		((TryStatement)node.getFirstChild()).getTryBlock().addChildToFront(makeExpression(makeFunctionCall("JsHybugger.loadFile", scriptURI, node.getEndLineno(), sourceHash)));
 	}
 	
 	/**
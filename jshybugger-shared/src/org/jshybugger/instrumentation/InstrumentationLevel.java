@@ -0,0 +1,67 @@
+/*
+ * Copyright 2013 Wolfgang Flohr-Hochbichler (developer@jshybugger.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jshybugger.instrumentation;
+
+/**
+ * The InstrumentationLevel defines how much debugging code is added to a javascript resource.
+ */
+public enum InstrumentationLevel {
+
+	/** Statement tracking and call stack tracking - the script is fully debug-able. */
+	FULL("full"),
+
+	/** Only call stack tracking - the script shows up in stack traces but can't be stepped through. */
+	STACK_ONLY("stackOnly"),
+
+	/** No instrumentation at all - the script is delivered unchanged. */
+	NONE("none");
+
+	/** The protocol name. */
+	private final String protocolName;
+
+	/**
+	 * Instantiates a new instrumentation level.
+	 *
+	 * @param protocolName the name used by the debugging protocol
+	 */
+	private InstrumentationLevel(String protocolName) {
+		this.protocolName = protocolName;
+	}
+
+	/**
+	 * Gets the name used by the debugging protocol.
+	 *
+	 * @return the protocol name
+	 */
+	public String getProtocolName() {
+		return protocolName;
+	}
+
+	/**
+	 * Returns the level for a protocol name.
+	 *
+	 * @param protocolName the protocol name i.e. "stackOnly"
+	 * @return the instrumentation level or null if the name is unknown
+	 */
+	public static InstrumentationLevel fromProtocolName(String protocolName) {
+		for (InstrumentationLevel level : values()) {
+			if (level.protocolName.equals(protocolName)) {
+				return level;
+			}
+		}
+		return null;
+	}
+}
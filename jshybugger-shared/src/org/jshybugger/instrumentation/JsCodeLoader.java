@@ -19,12 +19,15 @@ import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CountDownLatch;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
 
 import org.mozilla.javascript.EvaluatorException;
 import org.mozilla.javascript.Parser;
@@ -34,6 +37,7 @@ import org.mozilla.javascript.ast.AstRoot;
 
 /**
  * The JsCodeLoader is a helper class to make javascript files debug-able. 
+ * Files can be instrumented concurrently, every call parses on its own thread with its own parser and instrumentator.
  */
 public class JsCodeLoader {
 
@@ -43,6 +47,9 @@ public class JsCodeLoader {
 	/** The Constant PARSER_THREAD_STACKSIZE. */
 	public static final int DEFAULT_INSTRUMENT_STACKSIZE = 32000;
 	
+	/** The script uri to instrument with if the same instrumented content is shared by several urls, see {@link ScriptUriInputStream}. */
+	public static final String SCRIPT_URI_PLACEHOLDER = "__jsHybuggerScriptUri__";
+	
 	/** The Constant TAG. */
 	private static final String TAG = "JsCodeLoader";
 
@@ -54,9 +61,22 @@ public class JsCodeLoader {
 	 * @param properties instrumentation properties
 	 * @throws IOException Signals that an I/O exception has occurred.
 	 */
-	public synchronized static void instrumentFile(final String scriptUri, final InputStream inputFile, final OutputStream outputStream, Map<String, Object> properties) throws Exception  {
+	public static void instrumentFile(final String scriptUri, final InputStream inputFile, final OutputStream outputStream, Map<String, Object> properties) throws Exception  {
 		instrumentFile(scriptUri, inputFile, outputStream, properties, 0,new DebugInstrumentator());
 	}
+
+	/**
+	 * Instrument javascript file.
+	 * @param scriptUri the script uri
+	 * @param inputFile the input file
+	 * @param outputStream the output stream
+	 * @param properties instrumentation properties
+	 * @param level the instrumentation level, must not be NONE
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public static void instrumentFile(final String scriptUri, final InputStream inputFile, final OutputStream outputStream, Map<String, Object> properties, InstrumentationLevel level) throws Exception  {
+		instrumentFile(scriptUri, inputFile, outputStream, properties, 0,new DebugInstrumentator(level != InstrumentationLevel.STACK_ONLY));
+	}
 	/**
 	 * Instrument javascript file.
 	 * @param scriptUri the script uri
@@ -65,9 +85,11 @@ public class JsCodeLoader {
 	 * @param properties instrumentation properties
 	 * @throws IOException Signals that an I/O exception has occurred.
 	 */
-	public synchronized static void instrumentFile(final String scriptUri, final InputStream inputFile, final OutputStream outputStream, Map<String, Object> properties, final int linenr,final DebugInstrumentator instrumenator) throws Exception  {
+	public static void instrumentFile(final String scriptUri, final InputStream inputFile, final OutputStream outputStream, Map<String, Object> properties, final int linenr,final DebugInstrumentator instrumenator) throws Exception  {
 	
-		final InputStreamReader inputStreamReader = new InputStreamReader(inputFile);
+		// the checksum of the original source identifies the script version, see DebugInstrumentator#setSourceHash()
+		final CheckedInputStream checkedInput = new CheckedInputStream(inputFile, new CRC32());
+		final InputStreamReader inputStreamReader = new InputStreamReader(checkedInput);
 		try {
 			final CountDownLatch startSignal = new CountDownLatch(1);
 			final List<Exception> parseExceptions = new ArrayList<Exception>();
@@ -84,6 +106,7 @@ public class JsCodeLoader {
 //						Log.i(TAG, "Parsing file: " + scriptUri);
 						try {
 							ast = jsParser.parse(inputStreamReader, scriptUri, linenr);
+							instrumenator.setSourceHash(Long.toHexString(checkedInput.getChecksum().getValue()));
 //							Log.i(TAG, "Instrumenting file: " + scriptUri);
 							ast.visit(instrumenator);
 							
@@ -122,6 +145,9 @@ public class JsCodeLoader {
 			}
 		} catch (InterruptedException e) {
 //			Log.w(TAG, "Waiting for instrumentation interrupted: " + scriptUri);
+			// the parser thread might still write to the output stream
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("instrumentation interrupted: " + scriptUri);
 		} finally {
 			try {
 				inputStreamReader.close();
@@ -0,0 +1,191 @@
+/*
+ * Copyright 2013 Wolfgang Flohr-Hochbichler (developer@jshybugger.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jshybugger.instrumentation;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * The ScriptClassifier decides how a javascript resource should be instrumented.
+ * Known third-party libraries (matched by content hash) and minified code are delivered without
+ * instrumentation, very large files get only call stack tracking.
+ */
+public class ScriptClassifier {
+
+	/** The classpath resource with known library fingerprints, one MD5 checksum per line. */
+	public static final String FINGERPRINT_RESOURCE = "/jshybugger-libraries.txt";
+
+	/** The average line length above which a script is treated as minified. */
+	public static final int DEFAULT_MAX_AVG_LINE_LENGTH = 200;
+
+	/** The file size above which a script gets only call stack tracking. */
+	public static final int DEFAULT_MAX_SIZE = 256000;
+
+	/** The identifier length entropy (bits) below which a script is treated as minified. */
+	private static final double MIN_IDENTIFIER_ENTROPY = 2.0;
+
+	/** The minimal number of identifiers before the entropy heuristic is applied. */
+	private static final int MIN_IDENTIFIERS = 200;
+
+	/** The longest identifier length tracked by the histogram. */
+	private static final int MAX_IDENTIFIER_LENGTH = 32;
+
+	/** The known library fingerprints. */
+	private final Set<String> fingerprints = new HashSet<String>();
+
+	/** The max avg line length. */
+	private int maxAvgLineLength = DEFAULT_MAX_AVG_LINE_LENGTH;
+
+	/** The max size. */
+	private int maxSize = DEFAULT_MAX_SIZE;
+
+	/**
+	 * Instantiates a new script classifier and loads the bundled library fingerprints.
+	 */
+	public ScriptClassifier() {
+		InputStream in = ScriptClassifier.class.getResourceAsStream(FINGERPRINT_RESOURCE);
+		if (in != null) {
+			try {
+				BufferedReader reader = new BufferedReader(new InputStreamReader(in));
+				try {
+					String line;
+					while ((line = reader.readLine()) != null) {
+						addFingerprints(line);
+					}
+				} finally {
+					reader.close();
+				}
+			} catch (IOException e) {
+				// fingerprints are optional
+			}
+		}
+	}
+
+	/**
+	 * Adds library fingerprints.
+	 *
+	 * @param fingerprintList comma separated list of MD5 checksums, '#' starts a comment
+	 */
+	public void addFingerprints(String fingerprintList) {
+		if (fingerprintList == null) {
+			return;
+		}
+		int comment = fingerprintList.indexOf('#');
+		if (comment >= 0) {
+			fingerprintList = fingerprintList.substring(0, comment);
+		}
+		for (String fingerprint : fingerprintList.split(",")) {
+			fingerprint = fingerprint.trim().toLowerCase();
+			if (fingerprint.length() > 0) {
+				fingerprints.add(fingerprint);
+			}
+		}
+	}
+
+	/**
+	 * Sets the average line length above which a script is treated as minified.
+	 *
+	 * @param maxAvgLineLength the max avg line length, 0 disables the check
+	 */
+	public void setMaxAvgLineLength(int maxAvgLineLength) {
+		this.maxAvgLineLength = maxAvgLineLength;
+	}
+
+	/**
+	 * Sets the file size above which a script gets only call stack tracking.
+	 *
+	 * @param maxSize the max size in bytes, 0 disables the check
+	 */
+	public void setMaxSize(int maxSize) {
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * Classifies a javascript resource.
+	 *
+	 * @param contentHash the MD5 checksum of the resource
+	 * @param content the resource content, will not be closed
+	 * @return the instrumentation level to use
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public InstrumentationLevel classify(String contentHash, InputStream content) throws IOException {
+
+		if (contentHash != null && fingerprints.contains(contentHash.toLowerCase())) {
+			return InstrumentationLevel.NONE;
+		}
+
+		Reader reader = new BufferedReader(new InputStreamReader(content));
+		int[] identifierLengths = new int[MAX_IDENTIFIER_LENGTH + 1];
+		int numIdentifiers = 0;
+		int identifierLength = 0;
+		long numChars = 0;
+		long numLines = 1;
+		int c;
+
+		while ((c = reader.read()) != -1) {
+			numChars++;
+			if (c == '\n') {
+				numLines++;
+			}
+
+			if (Character.isJavaIdentifierPart(c) && (identifierLength > 0 || Character.isJavaIdentifierStart(c))) {
+				identifierLength++;
+			} else if (identifierLength > 0) {
+				identifierLengths[Math.min(identifierLength, MAX_IDENTIFIER_LENGTH)]++;
+				numIdentifiers++;
+				identifierLength = 0;
+			}
+		}
+
+		if (maxAvgLineLength > 0 && numChars / numLines > maxAvgLineLength) {
+			return InstrumentationLevel.NONE;
+		}
+
+		if (numIdentifiers >= MIN_IDENTIFIERS && getEntropy(identifierLengths, numIdentifiers) < MIN_IDENTIFIER_ENTROPY) {
+			return InstrumentationLevel.NONE;
+		}
+
+		if (maxSize > 0 && numChars > maxSize) {
+			return InstrumentationLevel.STACK_ONLY;
+		}
+
+		return InstrumentationLevel.FULL;
+	}
+
+	/**
+	 * Calculates the shannon entropy of the identifier length distribution.
+	 * Minified code uses mostly one or two character identifiers which results in a low entropy.
+	 *
+	 * @param histogram the identifier length histogram
+	 * @param total the number of identifiers
+	 * @return the entropy in bits
+	 */
+	private double getEntropy(int[] histogram, int total) {
+		double entropy = 0;
+		for (int count : histogram) {
+			if (count > 0) {
+				double p = (double) count / total;
+				entropy -= p * Math.log(p) / Math.log(2);
+			}
+		}
+		return entropy;
+	}
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright 2013 Wolfgang Flohr-Hochbichler (developer@jshybugger.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jshybugger.instrumentation;
+
+import java.io.BufferedInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.mozilla.javascript.ScriptRuntime;
+
+/**
+ * The ScriptUriInputStream applies the script identity to content instrumented with
+ * {@link JsCodeLoader#SCRIPT_URI_PLACEHOLDER}. Every quoted placeholder literal is replaced
+ * by the quoted and escaped script uri while the content is read.
+ */
+public class ScriptUriInputStream extends FilterInputStream {
+
+	/** The quoted placeholder literal. */
+	private static final byte[] PLACEHOLDER = ("'" + JsCodeLoader.SCRIPT_URI_PLACEHOLDER + "'").getBytes();
+
+	/** The quoted script uri literal. */
+	private final byte[] replacement;
+
+	/** The read position in the replacement, equals replacement length if no replacement is pending. */
+	private int replacementPos;
+
+	/** The lookahead buffer. */
+	private final byte[] lookahead = new byte[PLACEHOLDER.length - 1];
+
+	/**
+	 * Instantiates a new script uri input stream.
+	 *
+	 * @param in the instrumented content
+	 * @param scriptUri the script uri
+	 */
+	public ScriptUriInputStream(InputStream in, String scriptUri) {
+		super(new BufferedInputStream(in));
+		this.replacement = ("'" + ScriptRuntime.escapeString(scriptUri, '\'') + "'").getBytes();
+		this.replacementPos = replacement.length;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.io.FilterInputStream#read()
+	 */
+	@Override
+	public int read() throws IOException {
+		if (replacementPos < replacement.length) {
+			return replacement[replacementPos++] & 0xff;
+		}
+
+		int c = in.read();
+		if (c != PLACEHOLDER[0]) {
+			return c;
+		}
+
+		in.mark(lookahead.length);
+		int len = 0, n;
+		while (len < lookahead.length && (n = in.read(lookahead, len, lookahead.length - len)) > 0) {
+			len += n;
+		}
+		for (int i = 0; i < len; i++) {
+			if (lookahead[i] != PLACEHOLDER[i + 1]) {
+				len = -1;
+				break;
+			}
+		}
+		if (len == lookahead.length) {
+			replacementPos = 1;
+			return replacement[0] & 0xff;
+		}
+
+		in.reset();
+		return c;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.io.FilterInputStream#read(byte[], int, int)
+	 */
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		int num = 0;
+		while (num < len) {
+			int c = read();
+			if (c < 0) {
+				return num > 0 ? num : -1;
+			}
+			b[off + num++] = (byte) c;
+			if (replacementPos >= replacement.length && in.available() <= 0) {
+				break;
+			}
+		}
+		return num;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.io.FilterInputStream#skip(long)
+	 */
+	@Override
+	public long skip(long n) throws IOException {
+		long num = 0;
+		while (num < n && read() >= 0) {
+			num++;
+		}
+		return num;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.io.FilterInputStream#available()
+	 */
+	@Override
+	public int available() throws IOException {
+		return (replacement.length - replacementPos) + in.available();
+	}
+
+	/* (non-Javadoc)
+	 * @see java.io.FilterInputStream#mark(int)
+	 */
+	@Override
+	public synchronized void mark(int readlimit) {
+	}
+
+	/* (non-Javadoc)
+	 * @see java.io.FilterInputStream#reset()
+	 */
+	@Override
+	public synchronized void reset() throws IOException {
+		throw new IOException("mark/reset not supported");
+	}
+
+	/* (non-Javadoc)
+	 * @see java.io.FilterInputStream#markSupported()
+	 */
+	@Override
+	public boolean markSupported() {
+		return false;
+	}
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2013 Wolfgang Flohr-Hochbichler (developer@jshybugger.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jshybugger.proxy;
+
+import org.webbitserver.BaseWebSocketHandler;
+import org.webbitserver.WebSocketConnection;
+
+/**
+ * The BrowserChannelHandler is the WebSocket endpoint of the page runtime. 
+ * The page sends its messages without waiting for a HTTP response and receives the queued messages
+ * as pushed batches. Blocking message requests still use the {@link JSHybuggerResourceHandler}.
+ */
+public class BrowserChannelHandler extends BaseWebSocketHandler {
+
+	/** The browser interface. */
+	private final JSDInterface browserInterface;
+
+	/**
+	 * Instantiates a new browser channel handler.
+	 *
+	 * @param browserInterface the browser interface
+	 */
+	BrowserChannelHandler(JSDInterface browserInterface) {
+		this.browserInterface = browserInterface;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.webbitserver.BaseWebSocketHandler#onOpen(org.webbitserver.WebSocketConnection)
+	 */
+	@Override
+	public void onOpen(WebSocketConnection conn) {
+		browserInterface.openChannel(conn);
+	}
+
+	/* (non-Javadoc)
+	 * @see org.webbitserver.BaseWebSocketHandler#onClose(org.webbitserver.WebSocketConnection)
+	 */
+	@Override
+	public void onClose(WebSocketConnection conn) {
+		browserInterface.closeChannel(conn);
+	}
+
+	/* (non-Javadoc)
+	 * @see org.webbitserver.BaseWebSocketHandler#onMessage(org.webbitserver.WebSocketConnection, java.lang.String)
+	 */
+	@Override
+	public void onMessage(WebSocketConnection conn, String strMessage) {
+		// frame layout: "<op> <arg> <ack>\n<payload>", the payload is passed on unparsed
+		int headerEnd = strMessage.indexOf('\n');
+		String[] header = (headerEnd < 0 ? strMessage : strMessage.substring(0, headerEnd)).split(" ");
+		String payload = headerEnd < 0 ? "" : strMessage.substring(headerEnd + 1);
+		if (header.length < 3) {
+			return;
+		}
+		String op = header[0];
+		
+		try {
+			// every message can acknowledge the processed batches
+			int ack = Integer.parseInt(header[2]);
+			if (ack > 0) {
+				browserInterface.acknowledgeBatch(ack);
+			}
+			
+			if ("send".equals(op)) {
+				browserInterface.sendToDebugService(header[1], payload);
+				
+			} else if ("sendBatch".equals(op)) {
+				browserInterface.sendBatchToDebugService(payload);
+				
+			} else if ("reply".equals(op)) {
+				browserInterface.sendReplyToDebugService(Integer.parseInt(header[1]), payload);
+			}
+		} catch (NumberFormatException e) {
+			e.printStackTrace();
+		}
+	}
+}
@@ -35,6 +35,8 @@ public class DebugWebAppService {
 	private void start(int debugPort, final ScriptSourceProvider scriptSourceProvider)  throws IOException, InterruptedException {
 		JSDInterface browserInterface = new JSDInterface();
 		DebugServer debugServer = new DebugServer( debugPort );
+		// must be added before the resource handler, which accepts all /jshybugger/ requests
+		debugServer.addWebSocketHandler("/jshybugger/channel", new BrowserChannelHandler(browserInterface));
 		debugServer.addHandler("/jshybugger/.*", new JSHybuggerResourceHandler(browserInterface));
 		
 		DebugSession debugSession = new DebugSession() {
@@ -15,33 +15,100 @@
  */
 package org.jshybugger.proxy;
 
-import java.util.concurrent.ExecutorService;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 import org.jshybugger.server.AbstractBrowserInterface;
 import org.webbitserver.HttpResponse;
+import org.webbitserver.WebSocketConnection;
 
 /**
  * This class is the interface between the browser and the debugging service.
- * 
+ * Blocking message requests don't occupy a thread, the response is parked and completed 
+ * by the thread which queues the next message or by the poll timer.
+ * If the page has opened a browser channel (WebSocket), queued messages are pushed over the channel. 
+ * Pushed batches are kept till the page acknowledges them, a page which started to block before 
+ * it received a pushed batch gets the batch again with its next message request.
  */
 public class JSDInterface extends AbstractBrowserInterface {
 
+	/** The shared timer which completes parked polls after the max wait time. */
+	private static final ScheduledExecutorService POLL_TIMER = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+		
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "jsHybuggerPollTimer");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+	
+	/** The max size of a batch pushed over the browser channel. */
+	private static final int MAX_PUSH_BYTES = 256000;
+	
 	private boolean notifyBrowser = false;
 	private HttpResponse response;
-	private ExecutorService executorService;
+	
+	/** The browser channel, null if the page uses the push channel. */
+	private WebSocketConnection channel;
+	
+	/** The pushed batches not acknowledged by the page, by batch id. Guards channel and batchId too. */
+	private final LinkedHashMap<Integer,String> unacknowledgedBatches = new LinkedHashMap<Integer,String>();
+	
+	/** The last batch id. */
+	private int batchId;
+	
+	/** The parked polls in arrival order. */
+	private final LinkedList<ParkedPoll> parkedPolls = new LinkedList<ParkedPoll>();
 	
 	/**
 	 * Instantiates a new jSD interface.
 	 */
 	public JSDInterface() {
 		super(5000);
-		executorService = Executors.newFixedThreadPool(1);
+	}
+
+	/* (non-Javadoc)
+	 * @see org.jshybugger.server.AbstractBrowserInterface#sendToDebugService(java.lang.String, java.lang.String)
+	 */
+	@Override
+	public void sendToDebugService(String path, String data) {
+		if ("GlobalInitHybugger".equals(path)) {
+			// polls of the previous page must not consume messages of the new page
+			releaseParkedPolls();
+			synchronized (unacknowledgedBatches) {
+				unacknowledgedBatches.clear();
+			}
+		}
+		super.sendToDebugService(path, data);
+	}
+
+	/* (non-Javadoc)
+	 * @see org.jshybugger.server.AbstractBrowserInterface#onMessageQueued()
+	 */
+	@Override
+	protected void onMessageQueued() {
+		completeParkedPolls();
 	}
 		
 
 	@Override
 	public void notifyBrowser() {
+		synchronized (unacknowledgedBatches) {
+			if (channel != null) {
+				pushQueuedMessages();
+				return;
+			}
+		}
+		
 		synchronized (this) {
 			if (response != null) {
 			//	Log.d(TAG, "notifyBrowser(): " +response);
@@ -54,6 +121,79 @@ public class JSDInterface extends AbstractBrowserInterface {
 		}
 	}
 
+	/**
+	 * Sets the browser channel of the page and pushes the queued messages.
+	 *
+	 * @param conn the browser channel
+	 */
+	public void openChannel(WebSocketConnection conn) {
+		synchronized (unacknowledgedBatches) {
+			channel = conn;
+			pushQueuedMessages();
+		}
+	}
+	
+	/**
+	 * Removes the browser channel, further notifications use the push channel.
+	 *
+	 * @param conn the closed browser channel
+	 */
+	public void closeChannel(WebSocketConnection conn) {
+		synchronized (unacknowledgedBatches) {
+			if (channel == conn) {
+				channel = null;
+			}
+		}
+	}
+	
+	/**
+	 * Removes the pushed batches the page has processed.
+	 *
+	 * @param acknowledgedId the id of the last processed batch
+	 */
+	public void acknowledgeBatch(int acknowledgedId) {
+		synchronized (unacknowledgedBatches) {
+			Iterator<Integer> ids = unacknowledgedBatches.keySet().iterator();
+			while (ids.hasNext() && ids.next() <= acknowledgedId) {
+				ids.remove();
+			}
+		}
+	}
+	
+	/**
+	 * Pushes all queued messages over the browser channel.
+	 * Must be called with the unacknowledgedBatches lock held.
+	 */
+	private void pushQueuedMessages() {
+		String messages;
+		while ((messages = pollQueuedMessages(false, MAX_PUSH_BYTES)) != null) {
+			String batch = "{\"batch\":" + (++batchId) + ",\"messages\":" + messages + "}";
+			unacknowledgedBatches.put(batchId, batch);
+			channel.send(batch);
+		}
+	}
+	
+	/**
+	 * Takes the pushed batches the page hasn't acknowledged.
+	 *
+	 * @return JSON object with the batches in "redelivered" or null if all batches were acknowledged
+	 */
+	private String takeUnacknowledgedBatches() {
+		synchronized (unacknowledgedBatches) {
+			if (unacknowledgedBatches.isEmpty()) {
+				return null;
+			}
+			
+			StringBuilder redelivered = new StringBuilder("{\"redelivered\":[");
+			for (String batch : unacknowledgedBatches.values()) {
+				redelivered.append(batch).append(',');
+			}
+			redelivered.setCharAt(redelivered.length()-1, ']');
+			unacknowledgedBatches.clear();
+			return redelivered.append('}').toString();
+		}
+	}
+
 	public void openPushChannel(final HttpResponse res) {
 		synchronized (this) {
 			if (notifyBrowser) {
@@ -85,16 +225,7 @@ public class JSDInterface extends AbstractBrowserInterface {
 
 	public void getQueuedMessage(final HttpResponse res, final boolean wait) {
 		if (wait) {
-		
-			executorService.execute(new Runnable() {
-
-				@Override
-				public void run() {
-					String queuedMessage = JSDInterface.this.getQueuedMessage(true);
-					sendNotifyMessage(res, queuedMessage);
-				}
-				
-			});
+			parkPoll(new ParkedPoll(res, 0));
 		} else {
 			String queuedMessage = super.getQueuedMessage(false);
 			sendNotifyMessage(res, queuedMessage);
@@ -102,7 +233,127 @@ public class JSDInterface extends AbstractBrowserInterface {
 	}
 
 
+	public void getQueuedMessages(final HttpResponse res, final boolean wait, final int maxBytes) {
+		String redelivered = takeUnacknowledgedBatches();
+		if (redelivered != null) {
+			sendNotifyMessage(res, redelivered);
+		} else if (wait) {
+			parkPoll(new ParkedPoll(res, maxBytes));
+		} else {
+			String queuedMessages = super.getQueuedMessages(false, maxBytes);
+			sendNotifyMessage(res, queuedMessages);
+		}
+	}
+
+	/**
+	 * Parks a blocking poll till a message is queued or the max wait time elapsed.
+	 *
+	 * @param poll the poll
+	 */
+	private void parkPoll(final ParkedPoll poll) {
+		synchronized (parkedPolls) {
+			parkedPolls.add(poll);
+			poll.timeout = POLL_TIMER.schedule(new Runnable() {
+
+				@Override
+				public void run() {
+					synchronized (parkedPolls) {
+						if (!parkedPolls.remove(poll)) {
+							return;
+						}
+					}
+					sendNotifyMessage(poll.response, getTimeoutMessage());
+				}
+			}, maxWaitTime, TimeUnit.MILLISECONDS);
+		}
+		
+		// the message might have been queued before the poll was parked
+		completeParkedPolls();
+	}
+
+	/**
+	 * Completes parked polls with queued messages, the oldest poll gets the first message.
+	 */
+	private void completeParkedPolls() {
+		List<ParkedPoll> completed = null;
+		
+		synchronized (parkedPolls) {
+			while (!parkedPolls.isEmpty()) {
+				ParkedPoll poll = parkedPolls.getFirst();
+				if (poll.maxBytes > 0) {
+					poll.message = takeUnacknowledgedBatches();
+					if (poll.message == null) {
+						poll.message = pollQueuedMessages(true, poll.maxBytes);
+					}
+				} else {
+					poll.message = pollQueuedMessage(true);
+				}
+				if (poll.message == null) {
+					break;
+				}
+				
+				parkedPolls.removeFirst();
+				poll.timeout.cancel(false);
+				if (completed == null) {
+					completed = new ArrayList<ParkedPoll>();
+				}
+				completed.add(poll);
+			}
+		}
+		
+		if (completed != null) {
+			for (ParkedPoll poll : completed) {
+				sendNotifyMessage(poll.response, poll.message);
+			}
+		}
+	}
+	
+	/**
+	 * Completes all parked polls with the timeout message.
+	 */
+	private void releaseParkedPolls() {
+		List<ParkedPoll> released;
+		synchronized (parkedPolls) {
+			released = new ArrayList<ParkedPoll>(parkedPolls);
+			parkedPolls.clear();
+		}
+		
+		for (ParkedPoll poll : released) {
+			poll.timeout.cancel(false);
+			sendNotifyMessage(poll.response, getTimeoutMessage());
+		}
+	}
+	
 	public void stop() {
-		executorService.shutdownNow();
+		releaseParkedPolls();
+	}
+	
+	/**
+	 * The ParkedPoll is a blocking message request waiting for the next message.
+	 */
+	private static class ParkedPoll {
+		
+		/** The response. */
+		final HttpResponse response;
+		
+		/** The max batch size, 0 for single message requests. */
+		final int maxBytes;
+		
+		/** The timeout task. */
+		ScheduledFuture<?> timeout;
+		
+		/** The message to send. */
+		String message;
+
+		/**
+		 * Instantiates a new parked poll.
+		 *
+		 * @param response the response
+		 * @param maxBytes the max batch size, 0 for single message requests
+		 */
+		ParkedPoll(HttpResponse response, int maxBytes) {
+			this.response = response;
+			this.maxBytes = maxBytes;
+		}
 	}
 }
@@ -40,6 +40,10 @@ class JSHybuggerResourceHandler implements HttpHandler {
 		} else {
 		
 			String uri = req.uri();
+			int query = uri.indexOf('?');
+			if (query >= 0) {
+				uri = uri.substring(0, query);
+			}
 			//Log.d(TAG,  "START: " + req);
 			if (uri.endsWith("jshybugger.js")) {
 				res.header("Cache-control", "no-cache, no-store");
@@ -55,13 +59,15 @@ class JSHybuggerResourceHandler implements HttpHandler {
 				
 			} else if (uri.endsWith("sendToDebugService")) {
 									
-				JSONObject jsonReq = new JSONObject(req.body());
-				this.browserInterface.sendToDebugService(jsonReq.getString("arg0"), jsonReq.getString("arg1"));
+				this.browserInterface.sendToDebugService(req.queryParam("path"), req.body());
+				
+			} else if (uri.endsWith("sendBatchToDebugService")) {
+				
+				this.browserInterface.sendBatchToDebugService(req.body());
 				
 			} else if (uri.endsWith("sendReplyToDebugService")) {
 									
-				JSONObject jsonReq = new JSONObject(req.body());
-				this.browserInterface.sendReplyToDebugService(jsonReq.getInt("arg0"), jsonReq.getString("arg1"));
+				this.browserInterface.sendReplyToDebugService(Integer.parseInt(req.queryParam("replyId")), req.body());
 
 			} else if (uri.endsWith("getQueuedMessage")) {
 
@@ -69,6 +75,12 @@ class JSHybuggerResourceHandler implements HttpHandler {
 				this.browserInterface.getQueuedMessage(res, jsonReq.getBoolean("arg0"));
 				return;
 				
+			} else if (uri.endsWith("getQueuedMessages")) {
+
+				JSONObject jsonReq = new JSONObject(req.body());
+				this.browserInterface.getQueuedMessages(res, jsonReq.getBoolean("arg0"), jsonReq.getInt("arg1"));
+				return;
+				
 			} else if (uri.endsWith("pushChannel")) {
 
 				this.browserInterface.openPushChannel(res);
@@ -80,4 +92,4 @@ class JSHybuggerResourceHandler implements HttpHandler {
 			res.end();
 		}
 	}
-}
\ No newline at end of file
+}
\ No newline at end of file
@@ -15,10 +15,7 @@
  */
 package org.jshybugger.server;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -38,16 +35,16 @@ public abstract class AbstractBrowserInterface implements BrowserInterface {
 	private DebugSession debugSession;
 	
 	/** The message queue. */
-	private List<String> messageQueue = new ArrayList<String>(); 
-	
-	/** The reply identifier. */
-	private int replyIdentifier=0;
+	private final BrowserMessageQueue messageQueue = new BrowserMessageQueue(); 
 	
 	/** The reply receivers. */
-	private Map<Integer,ReplyReceiver> replyReceivers = new HashMap<Integer,ReplyReceiver>();
+	private final PendingReplies pendingReplies = new PendingReplies();
 	
 	/** The sync queue mode. */
-	private boolean syncQueueMode = false;
+	private volatile boolean syncQueueMode = false;
+	
+	/** True while a browser notification is outstanding, i.e. the browser hasn't drained the queue yet. */
+	private final AtomicBoolean browserNotified = new AtomicBoolean(false);
 	
 	private String TIMEOUT_MSG = null;
 
@@ -83,8 +80,56 @@ public abstract class AbstractBrowserInterface implements BrowserInterface {
 	 */
 	public void setDebugSession(DebugSession debugSession) {
 		this.debugSession = debugSession;
+		pendingReplies.setCallbackExecutor(debugSession.getExecutor());
 	}
 
+	/**
+	 * Sets the time the webview has to reply to a message.
+	 *
+	 * @param replyTimeout the reply timeout in milliseconds, 0 disables the timeout
+	 */
+	public void setReplyTimeout(long replyTimeout) {
+		pendingReplies.setTimeout(replyTimeout);
+	}
+	
+	/**
+	 * Sets the limits of the webview message queue.
+	 *
+	 * @param capacity the max number of queued messages
+	 * @param policy the overflow policy, DROP_OLDEST or DROP_NEWEST
+	 */
+	public void setQueueLimits(int capacity, OverflowPolicy policy) {
+		messageQueue.setLimits(capacity, policy);
+	}
+	
+	/**
+	 * Gets the number of messages the webview hasn't replied yet.
+	 *
+	 * @return the pending reply count
+	 */
+	public int getPendingReplyCount() {
+		return pendingReplies.getPendingCount();
+	}
+	
+	/**
+	 * Gets the number of messages the webview hasn't replied in time.
+	 *
+	 * @return the reply timeout count
+	 */
+	public int getReplyTimeoutCount() {
+		return pendingReplies.getTimeoutCount();
+	}
+	
+	/**
+	 * Gets the queue wait time statistics, one entry per message priority.
+	 *
+	 * @return the queue statistics
+	 * @throws JSONException some JSON exception occured
+	 */
+	public JSONObject getQueueStatistics() throws JSONException {
+		return messageQueue.getStatistics();
+	}
+	
 	/**
 	 * Send message to debug service.
 	 *
@@ -96,8 +141,13 @@ public abstract class AbstractBrowserInterface implements BrowserInterface {
 		
 		//Log.d(TAG, "sendToDebugService: " + data);
 		try {
-			JSONObject msg = new JSONObject(data);
-			debugSession.sendMessage(path, msg);
+			if ("GlobalInitHybugger".equals(path)) {
+				// page (re)loaded - the old page will never reply
+				pendingReplies.cancelAll("page reloaded");
+				browserNotified.set(false);
+			}
+			// the payload is only parsed if a message handler needs it
+			debugSession.sendRawMessage(path, new RawJSON(data));
 			
 		} catch (JSONException e) {
 //			Log.e(TAG, "sendToServer failed for path: " + path, e);
@@ -105,7 +155,31 @@ public abstract class AbstractBrowserInterface implements BrowserInterface {
 	}
 
 	/**
-	 * Send message to webview.
+	 * Send a batch of messages to debug service. The messages are dispatched in order.
+	 *
+	 * @param data one message per line, the message handler name followed by a space and the JSON data
+	 */
+//	@JavascriptInterface
+	public void sendBatchToDebugService(String data) {
+		
+		int start = 0;
+		while (start < data.length()) {
+			int end = data.indexOf('\n', start);
+			if (end < 0) {
+				end = data.length();
+			}
+			
+			int separator = data.indexOf(' ', start);
+			if (separator > start && separator < end) {
+				sendToDebugService(data.substring(start, separator), data.substring(separator + 1, end));
+			}
+			start = end + 1;
+		}
+	}
+
+	/**
+	 * Send message to webview. Messages are delivered by {@link MessagePriority} of the command,
+	 * messages of the same priority in the order they were sent.
 	 *
 	 * @param command the command
 	 * @param data the JSON payload 
@@ -114,24 +188,100 @@ public abstract class AbstractBrowserInterface implements BrowserInterface {
 	 */
 //	@JavascriptInterface
 	public void sendMsgToWebView(String command, JSONObject data, ReplyReceiver receiver) throws JSONException {
+		queueMessage(command, data != null ? data.toString() : "null", receiver);
+	}
+	
+	/**
+	 * Send message with an already serialized payload to webview. 
+	 *
+	 * @param command the command
+	 * @param data the serialized JSON payload, passed through unchanged
+	 * @param receiver an optional callback receiver
+	 * @throws JSONException some JSON exception occured
+	 */
+	public void sendRawMsgToWebView(String command, RawJSON data, ReplyReceiver receiver) throws JSONException {
+		queueMessage(command, data.toJSONString(), receiver);
+	}
+	
+	/**
+	 * Queues a message for the webview and notifies the browser.
+	 *
+	 * @param command the command
+	 * @param data the serialized JSON payload
+	 * @param receiver an optional callback receiver
+	 * @throws JSONException some JSON exception occured
+	 */
+	private void queueMessage(String command, String data, ReplyReceiver receiver) throws JSONException {
 		
-		synchronized (messageQueue) {
-			if (receiver != null) {
-				replyReceivers.put(++replyIdentifier, receiver);
-			}
-			messageQueue.add(new JSONStringer().object()
-					.key("command").value(command)
-					.key("data").value(data)
-					.key("replyId").value(receiver != null ? replyIdentifier : 0)
-					.endObject().toString());
-			messageQueue.notifyAll();
+		int replyId = receiver != null ? pendingReplies.register(receiver) : 0;
+		String message = "{\"command\":" + JSONObject.quote(command) 
+				+ ",\"data\":" + data 
+				+ ",\"replyId\":" + replyId + "}";
+		String dropped = messageQueue.offer(message, MessagePriority.forCommand(command));
 		
-			if (!syncQueueMode) {
-				notifyBrowser();
+		// the queue returns the message itself if it wasn't queued
+		if (dropped != message) {
+			onMessageQueued();
+		}
+		
+		if (dropped != null) {
+			// the debugger frontend gets an error instead of waiting for the reply timeout
+			int droppedReplyId = dropped == message ? replyId : new RawJSON(dropped).optInt("replyId", 0);
+			if (droppedReplyId > 0) {
+				pendingReplies.cancel(droppedReplyId, "message dropped, the webview message queue is full");
 			}
+			sendMessageDropped();
+		}
+	
+		if (!syncQueueMode) {
+			wakeUpBrowser();
 		}
 	}
 	
+	/**
+	 * Send a warning about a dropped webview message to the debugger console. Consecutive warnings
+	 * are collapsed by the console, the repeat count is the number of dropped messages.
+	 *
+	 * @throws JSONException some JSON exception occured
+	 */
+	private void sendMessageDropped() throws JSONException {
+		debugSession.sendMessage("Console.messageAdded", new JSONObject().put("message", new JSONObject()
+				.put("level", "warning")
+				.put("source", "other")
+				.put("type", "log")
+				.put("text", "webview message dropped, the webview message queue is full")));
+	}
+	
+	/**
+	 * Called after a message was queued for the webview.
+	 */
+	protected void onMessageQueued() {
+	}
+	
+	/**
+	 * Notifies the browser about queued messages, unless a notification is already outstanding.
+	 */
+	private void wakeUpBrowser() {
+		if (browserNotified.compareAndSet(false, true)) {
+			notifyBrowser();
+		}
+	}
+	
+	/**
+	 * Called when the browser has drained the message queue, the next message will notify the browser again.
+	 */
+	protected void onQueueDrained() {
+		browserNotified.set(false);
+		
+		// a message might have been queued while the notification was still outstanding
+		if (!messageQueue.isEmpty() && !syncQueueMode) {
+			wakeUpBrowser();
+		}
+	}
+	
+	/**
+	 * Notifies the browser to process the queued messages.
+	 */
 	public abstract void notifyBrowser();
 
 	/**
@@ -144,15 +294,26 @@ public abstract class AbstractBrowserInterface implements BrowserInterface {
 	public void sendReplyToDebugService(int replyId, String data) {
 		
 		//Log.d(TAG, "sendReplyToDebugService: " +data);
-		ReplyReceiver rec = replyReceivers.get(replyId);
+		final ReplyReceiver rec = pendingReplies.remove(replyId);
 		if (rec != null) {
-			try {
-				rec.onReply(new JSONObject(data));
-			} catch (JSONException e) {
-//				Log.e(TAG, "replyToServer failed for replyId: " + replyId, e);
-			}
+			final RawJSON reply = new RawJSON(data);
+			// the receivers run on the session event loop
+			debugSession.getExecutor().execute(new Runnable() {
+				
+				@Override
+				public void run() {
+					try {
+						if (rec instanceof ProtocolReplyReceiver) {
+							((ProtocolReplyReceiver)rec).onRawReply(reply);
+						} else {
+							rec.onReply(reply.toJSONObject());
+						}
+					} catch (JSONException e) {
+//						Log.e(TAG, "replyToServer failed for replyId: " + replyId, e);
+					}
+				}
+			});
 		}
-		replyReceivers.remove(replyId);
 	}
 	
 	/**
@@ -164,32 +325,91 @@ public abstract class AbstractBrowserInterface implements BrowserInterface {
 	 */
 //	@JavascriptInterface
 	public String getQueuedMessage(boolean wait) {
-		synchronized (messageQueue) {
-			//Log.d(TAG, "getQueuedMessage");
-			syncQueueMode = wait;
-			
-			if (messageQueue.size()>0) {
-				return messageQueue.remove(0);
-			}
-			
-			if (wait) {
-				while (messageQueue.isEmpty()) {
-					try {
-						messageQueue.wait(maxWaitTime);
-						if (maxWaitTime>0) {
-							return TIMEOUT_MSG; 
-						}
-					} catch (InterruptedException ex) {
-						if (messageQueue.isEmpty()) {
-							return TIMEOUT_MSG;
-						}
-					}
-				}
-				
-				return messageQueue.remove(0);
-			}
+		//Log.d(TAG, "getQueuedMessage");
+		String message = pollQueuedMessage(wait);
+		if (message != null || !wait) {
+			return message;
+		}
+		
+		try {
+			message = messageQueue.take(maxWaitTime);
+		} catch (InterruptedException ex) {
+			message = messageQueue.poll();
+		}
+		return message != null ? message : TIMEOUT_MSG;
+	}
+
+	/**
+	 * Gets all queued messages as one JSON array. Will be called by the webview.
+	 *
+	 * @param wait true will block the call till new data is available
+	 * @param maxBytes the max size of the batch, at least one message is returned
+	 * @return the JSON array with the queued messages or null if the queue is empty
+	 */
+//	@JavascriptInterface
+	public String getQueuedMessages(boolean wait, int maxBytes) {
+		
+		String message = getQueuedMessage(wait);
+		return message != null ? toBatch(message, maxBytes) : null;
+	}
+	
+	/**
+	 * Gets the queued message without waiting. Used by browser interfaces which hold waiting 
+	 * requests and complete them from {@link #onMessageQueued()}.
+	 *
+	 * @param wait true if the browser waits for the message (sync queue mode)
+	 * @return the queued message or null if the queue is empty
+	 */
+	protected String pollQueuedMessage(boolean wait) {
+		syncQueueMode = wait;
+		
+		String message = messageQueue.poll();
+		if (message == null && !wait) {
+			onQueueDrained();
+		}
+		return message;
+	}
+	
+	/**
+	 * Gets all queued messages as one JSON array without waiting.
+	 *
+	 * @param wait true if the browser waits for the messages (sync queue mode)
+	 * @param maxBytes the max size of the batch, at least one message is returned
+	 * @return the JSON array with the queued messages or null if the queue is empty
+	 */
+	protected String pollQueuedMessages(boolean wait, int maxBytes) {
+		
+		String message = pollQueuedMessage(wait);
+		return message != null ? toBatch(message, maxBytes) : null;
+	}
+	
+	/**
+	 * Gets the message the browser receives if no message was queued within the max wait time.
+	 *
+	 * @return the timeout message
+	 */
+	protected String getTimeoutMessage() {
+		return TIMEOUT_MSG;
+	}
+	
+	/**
+	 * Creates a JSON array of the first message and further queued messages.
+	 *
+	 * @param message the first message
+	 * @param maxBytes the max size of the batch
+	 * @return the JSON array
+	 */
+	private String toBatch(String message, int maxBytes) {
+		
+		StringBuilder batch = new StringBuilder(message.length() + 2);
+		batch.append('[').append(message);
+		
+		int size = message.length();
+		while ((message = messageQueue.pollIfFits(maxBytes - size)) != null) {
+			batch.append(',').append(message);
+			size += message.length();
 		}
 		
-		return null;
+		return batch.append(']').toString();
 	}
 }
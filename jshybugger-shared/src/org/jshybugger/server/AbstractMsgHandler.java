@@ -15,7 +15,9 @@
  */
 package org.jshybugger.server;
 
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
 
 import org.json.JSONException;
@@ -35,6 +37,9 @@ abstract public class AbstractMsgHandler implements MessageHandler {
 	/** The debug server. */
 	final protected DebugSession debugSession;
 
+	/** The method handlers by method name. */
+	private final Map<String,MethodHandler> methodHandlers = new HashMap<String,MethodHandler>();
+
 	final static Set<String> INTERNAL_MESSAGES = new HashSet<String>();
 	
 	static {
@@ -62,16 +67,86 @@ abstract public class AbstractMsgHandler implements MessageHandler {
 		return OBJECT_NAME;
 	}
 
+	/* (non-Javadoc)
+	 * @see org.jshybugger.server.MessageHandler#getMethodHandlers()
+	 */
+	@Override
+	public Map<String,MethodHandler> getMethodHandlers() {
+		return methodHandlers;
+	}
+
+	/**
+	 * Registers the handler for a protocol method.
+	 *
+	 * @param method the method name i.e. pageReload
+	 * @param handler the method handler
+	 */
+	protected void addMethodHandler(String method, MethodHandler handler) {
+		methodHandlers.put(method, handler);
+	}
+
+	/**
+	 * Registers a protocol method which replies a constant boolean result.
+	 *
+	 * @param method the method name i.e. enable
+	 * @param result the result value
+	 */
+	protected void addResultMethod(String method, final boolean result) {
+		addMethodHandler(method, new MethodHandler() {
+			
+			@Override
+			public void onReceiveMessage(WebSocketConnection conn, JSONObject message) throws JSONException {
+				sendResultMessage(conn, message, result);
+			}
+		});
+	}
+	
+	/**
+	 * Registers protocol methods which are only acknowledged.
+	 *
+	 * @param methods the method names
+	 */
+	protected void addAckMethods(String... methods) {
+		MethodHandler ackHandler = new MethodHandler() {
+			
+			@Override
+			public void onReceiveMessage(WebSocketConnection conn, JSONObject message) throws JSONException {
+				sendAckMessage(conn, message);
+			}
+		};
+		for (String method : methods) {
+			addMethodHandler(method, ackHandler);
+		}
+	}
+	
+	/**
+	 * Registers protocol methods which are processed by the browser, see {@link #dispatchToBrowserAndReply(WebSocketConnection, String, RawJSON)}.
+	 *
+	 * @param methods the method names
+	 */
+	protected void addBrowserMethods(String... methods) {
+		for (final String method : methods) {
+			addMethodHandler(method, new RawMethodHandler() {
+				
+				@Override
+				public void onReceiveRawMessage(WebSocketConnection conn, RawJSON message) throws JSONException {
+					dispatchToBrowserAndReply(conn, method, message);
+				}
+			});
+		}
+	}
+	
 	/* (non-Javadoc)
 	 * @see de.cyberflohrs.jshybugger.server.MessageHandler#onReceiveMessage(org.webbitserver.WebSocketConnection, java.lang.String, org.json.JSONObject)
 	 */
 	@Override
 	public void onReceiveMessage(WebSocketConnection conn, String method, JSONObject message) throws JSONException {
-		conn.send(
-				new JSONStringer().object()
-			.key("id").value(message.getInt("id"))
-			.key("result").object().key("result").value(false).endObject()
-			.endObject().toString());
+		MethodHandler handler = methodHandlers.get(method);
+		if (handler != null) {
+			handler.onReceiveMessage(conn, message);
+		} else {
+			sendResultMessage(conn, message, false);
+		}
 	}
 
 	/* (non-Javadoc)
@@ -119,6 +194,50 @@ abstract public class AbstractMsgHandler implements MessageHandler {
 		}
 	}
 	
+	/* (non-Javadoc)
+	 * @see org.jshybugger.server.MessageHandler#awaitCapacity(java.lang.String)
+	 */
+	@Override
+	public void awaitCapacity(String method) {
+	}
+	
+	/* (non-Javadoc)
+	 * @see org.jshybugger.server.MessageHandler#onSendRawMessage(org.webbitserver.WebSocketConnection, java.lang.String, org.jshybugger.server.RawJSON)
+	 */
+	@Override
+	public void onSendRawMessage(WebSocketConnection conn, String method, RawJSON message) throws JSONException {
+		onSendMessage(conn, method, message.toJSONObject());
+	}
+	
+	/**
+	 * Send protocol event with unchanged parameters to the debugger frontend.
+	 *
+	 * @param conn the websocket connection
+	 * @param method the protocol method i.e. "Debugger.paused"
+	 * @param params the serialized parameters
+	 */
+	protected void sendRawEvent(WebSocketConnection conn, String method, RawJSON params) {
+		if (conn != null) {
+			conn.send("{\"method\":" + JSONObject.quote(method) + ",\"params\":" + params.toJSONString() + "}");
+		}
+	}
+	
+	/**
+	 * Send protocol message with a boolean result.
+	 *
+	 * @param conn the websocket conn
+	 * @param message the message
+	 * @param result the result value
+	 * @throws JSONException the jSON exception
+	 */
+	protected void sendResultMessage(WebSocketConnection conn, JSONObject message, boolean result)
+			throws JSONException {
+		conn.send(new JSONStringer().object()
+			.key("id").value(message.getInt("id"))
+			.key("result").object().key("result").value(result).endObject()
+			.endObject().toString());
+	}
+	
 	/**
 	 * Send protocol acknowledge message.
 	 *
@@ -141,7 +260,7 @@ abstract public class AbstractMsgHandler implements MessageHandler {
 	 * @param message the message to dispatch
 	 * @throws JSONException the jSON exception
 	 */
-	protected void dispatchToBrowserAndReply(final WebSocketConnection conn, final String method, final JSONObject message) throws JSONException {
+	protected void dispatchToBrowserAndReply(final WebSocketConnection conn, final String method, final RawJSON message) throws JSONException {
 		dispatchToBrowserAndReply(conn, method, message, false);
 	}
 	
@@ -154,26 +273,40 @@ abstract public class AbstractMsgHandler implements MessageHandler {
 	 * @param confirm send confirm message after reply message
 	 * @throws JSONException the jSON exception
 	 */
-	protected void dispatchToBrowserAndReply(final WebSocketConnection conn, final String method, final JSONObject message, final boolean confirm) throws JSONException {
+	protected void dispatchToBrowserAndReply(final WebSocketConnection conn, final String method, final RawJSON message, final boolean confirm) throws JSONException {
 		
-		debugSession.getBrowserInterface().sendMsgToWebView(
-				method,
-				message.has("params") ? new JSONObject().put("params", message.getJSONObject("params")) : new JSONObject(),
-				new ReplyReceiver() {
+		sendParamsToWebView(method, message, new ProtocolReplyReceiver(conn, message) {
 
 			@Override
 			public void onReply(JSONObject data) throws JSONException {
-				
-				conn.send(new JSONStringer().object()
-						.key("id").value(message.getInt("id"))
-						.key("result").value(data)
-						.endObject().toString());
+				onRawReply(new RawJSON(data.toString()));
+			}
+			
+			@Override
+			public void onRawReply(RawJSON data) throws JSONException {
+				sendResult(data);
 				
 				if (confirm) {
-					sendAckMessage(conn, message);
+					sendResult(new RawJSON("{}"));
 				}
 			}
 		});
 	}
 	
+	/**
+	 * Send the params of a frontend message unchanged to the webview.
+	 *
+	 * @param command the webview command
+	 * @param message the serialized frontend message
+	 * @param receiver an optional callback receiver
+	 * @throws JSONException the jSON exception
+	 */
+	protected void sendParamsToWebView(String command, RawJSON message, ReplyReceiver receiver) throws JSONException {
+		RawJSON params = message.opt("params");
+		debugSession.getBrowserInterface().sendRawMsgToWebView(
+				command,
+				new RawJSON(params != null ? "{\"params\":" + params.toJSONString() + "}" : "{}"),
+				receiver);
+	}
+	
 }
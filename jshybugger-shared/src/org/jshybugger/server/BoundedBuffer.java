@@ -0,0 +1,244 @@
+/*
+ * Copyright 2013 Wolfgang Flohr-Hochbichler (developer@jshybugger.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jshybugger.server;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The BoundedBuffer keeps the latest messages in a fixed size ring, so that they can be delivered to 
+ * receivers which connect later. Messages stay in the buffer after delivery and are overwritten by newer 
+ * messages if the buffer is full. The {@link OverflowPolicy} decides what happens if the buffer is full of 
+ * messages which were not delivered yet. Dropped messages, which were never delivered, and overwritten 
+ * messages, which were delivered before, are counted separately so that the receiver can be notified.
+ *
+ * @param <T> the message type
+ */
+public class BoundedBuffer<T> {
+
+	/** The message ring. */
+	private Object[] messages;
+	
+	/** The index of the oldest message. */
+	private int head;
+	
+	/** The number of messages. */
+	private int size;
+	
+	/** The number of newest messages which were not delivered yet. */
+	private int undelivered;
+	
+	/** The overflow policy. */
+	private OverflowPolicy policy;
+	
+	/** The max time a producer waits for free space with policy BLOCK. */
+	private long blockTimeout;
+	
+	/** The number of messages which were dropped before delivery since the last clear. */
+	private int dropped;
+	
+	/** The number of delivered messages which were overwritten since the last clear. */
+	private int overwritten;
+	
+	/**
+	 * Instantiates a new bounded buffer.
+	 *
+	 * @param capacity the max number of messages
+	 * @param policy the overflow policy
+	 * @param blockTimeout the max time in milliseconds a producer waits for free space with policy BLOCK
+	 */
+	public BoundedBuffer(int capacity, OverflowPolicy policy, long blockTimeout) {
+		setLimits(capacity, policy, blockTimeout);
+	}
+	
+	/**
+	 * Sets the buffer limits. If the capacity is reduced, the newest messages are kept.
+	 *
+	 * @param capacity the max number of messages
+	 * @param policy the overflow policy
+	 * @param blockTimeout the max time in milliseconds a producer waits for free space with policy BLOCK
+	 */
+	public synchronized void setLimits(int capacity, OverflowPolicy policy, long blockTimeout) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("capacity must be positive: " + capacity);
+		}
+		if (messages == null || messages.length != capacity) {
+			List<T> kept = getMessages();
+			if (kept.size() > capacity) {
+				// the undelivered messages are the newest ones
+				int removed = kept.size() - capacity;
+				int removedUndelivered = Math.max(0, removed - (size - undelivered));
+				dropped += removedUndelivered;
+				overwritten += removed - removedUndelivered;
+				kept = kept.subList(kept.size() - capacity, kept.size());
+			}
+			messages = kept.toArray(new Object[capacity]);
+			head = 0;
+			size = kept.size();
+			undelivered = Math.min(undelivered, size);
+		}
+		this.policy = policy;
+		this.blockTimeout = blockTimeout;
+		notifyAll();
+	}
+	
+	/**
+	 * Waits for free space with policy BLOCK, the space is full if no message was delivered yet. 
+	 * The producer calls this method before the message is handed over to the thread which adds it, 
+	 * the wait ends after the block timeout. 
+	 */
+	public synchronized void awaitSpace() {
+		if (policy != OverflowPolicy.BLOCK) {
+			return;
+		}
+		
+		long deadline = System.currentTimeMillis() + blockTimeout;
+		long remaining = blockTimeout;
+		try {
+			while (undelivered >= messages.length && remaining > 0) {
+				wait(remaining);
+				remaining = deadline - System.currentTimeMillis();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+	
+	/**
+	 * Adds a message which was not delivered yet. The method never blocks, with policy BLOCK the message 
+	 * is dropped if the buffer is still full, see {@link #awaitSpace()}. 
+	 *
+	 * @param message the message
+	 * @return true if the message was added
+	 */
+	public synchronized boolean add(T message) {
+		if (undelivered >= messages.length && policy != OverflowPolicy.DROP_OLDEST) {
+			dropped++;
+			return false;
+		}
+		
+		append(message);
+		undelivered = Math.min(undelivered + 1, size);
+		return true;
+	}
+	
+	/**
+	 * Adds a message which was already delivered, the oldest message is overwritten if the buffer is full.
+	 * The older messages count as delivered too, the receiver is connected.
+	 *
+	 * @param message the message
+	 */
+	public synchronized void addDelivered(T message) {
+		append(message);
+		markDelivered();
+	}
+	
+	/**
+	 * Gets the newest message.
+	 *
+	 * @return the newest message or null if the buffer is empty
+	 */
+	@SuppressWarnings("unchecked")
+	public synchronized T getLast() {
+		return size > 0 ? (T) messages[(head + size - 1) % messages.length] : null;
+	}
+	
+	/**
+	 * Gets all messages, the messages stay in the buffer.
+	 *
+	 * @return the messages in insertion order
+	 */
+	@SuppressWarnings("unchecked")
+	public synchronized List<T> getMessages() {
+		List<T> list = new ArrayList<T>(size);
+		for (int i = 0; i < size; i++) {
+			list.add((T) messages[(head + i) % messages.length]);
+		}
+		return list;
+	}
+	
+	/**
+	 * Marks all messages as delivered, producers waiting for free space continue.
+	 */
+	public synchronized void markDelivered() {
+		undelivered = 0;
+		notifyAll();
+	}
+
+	/**
+	 * Returns the number of messages which were dropped before delivery since the last clear.
+	 *
+	 * @return the dropped message count
+	 */
+	public synchronized int getDroppedCount() {
+		return dropped;
+	}
+	
+	/**
+	 * Returns the number of delivered messages which were overwritten by newer ones since the last clear.
+	 *
+	 * @return the overwritten message count
+	 */
+	public synchronized int getOverwrittenCount() {
+		return overwritten;
+	}
+	
+	/**
+	 * Removes all messages and resets the dropped and overwritten message counters.
+	 */
+	public synchronized void clear() {
+		for (int i = 0; i < messages.length; i++) {
+			messages[i] = null;
+		}
+		head = 0;
+		size = 0;
+		undelivered = 0;
+		dropped = 0;
+		overwritten = 0;
+		notifyAll();
+	}
+	
+	/**
+	 * Gets the overflow policy.
+	 *
+	 * @return the overflow policy
+	 */
+	public synchronized OverflowPolicy getPolicy() {
+		return policy;
+	}
+	
+	/**
+	 * Appends a message, the oldest message is overwritten if the buffer is full.
+	 *
+	 * @param message the message
+	 */
+	private void append(T message) {
+		if (size == messages.length) {
+			// the oldest message is undelivered only if all messages are undelivered
+			if (undelivered >= size) {
+				dropped++;
+				undelivered--;
+			} else {
+				overwritten++;
+			}
+			messages[head] = message;
+			head = (head + 1) % messages.length;
+		} else {
+			messages[(head + size) % messages.length] = message;
+			size++;
+		}
+	}
+}
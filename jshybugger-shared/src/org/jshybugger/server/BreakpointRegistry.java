@@ -0,0 +1,332 @@
+/*
+ * Copyright 2013 Wolfgang Flohr-Hochbichler (developer@jshybugger.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jshybugger.server;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * The BreakpointRegistry keeps the breakpoints of a debug session. Breakpoints have numeric ids and are 
+ * indexed by id and by script. 
+ * 
+ * Breakpoints set by URL regex are matched once against every known script when they are added, and 
+ * every regex is matched once against a script when the script becomes known. Looking up the breakpoints 
+ * of a script never evaluates a regex.
+ */
+public class BreakpointRegistry {
+
+	/** The breakpoints by id, in the order they were added. */
+	private final Map<Integer,Breakpoint> breakpoints = new LinkedHashMap<Integer,Breakpoint>();
+	
+	/** The breakpoints by location, used to find an existing breakpoint for the same location. */
+	private final Map<String,Breakpoint> locations = new HashMap<String,Breakpoint>();
+	
+	/** The known scripts by URL. */
+	private final Map<String,Script> scripts = new HashMap<String,Script>();
+	
+	/** The breakpoints set by URL regex. */
+	private final List<Breakpoint> regexBreakpoints = new ArrayList<Breakpoint>();
+	
+	/** The last breakpoint id. */
+	private int lastId;
+	
+	/**
+	 * Adds a breakpoint for a script URL or a URL regex. If a breakpoint exists for the same location, 
+	 * the condition of the existing breakpoint is replaced.
+	 *
+	 * @param url the script URL or null
+	 * @param urlRegex the URL regex, used if url is null
+	 * @param line the line number
+	 * @param condition the breakpoint condition or null
+	 * @return the breakpoint
+	 * @throws PatternSyntaxException if the URL regex is invalid
+	 */
+	public Breakpoint add(String url, String urlRegex, int line, String condition) {
+		String location = (url != null ? "url:" + url : "regex:" + urlRegex) + ":" + line;
+		Breakpoint breakpoint = locations.get(location);
+		if (breakpoint != null) {
+			breakpoint.condition = condition;
+			return breakpoint;
+		}
+		
+		breakpoint = new Breakpoint(++lastId, url, url == null ? Pattern.compile(urlRegex) : null, line, condition, location);
+		breakpoints.put(breakpoint.id, breakpoint);
+		locations.put(location, breakpoint);
+		
+		if (url != null) {
+			getScript(url).add(breakpoint);
+		} else {
+			regexBreakpoints.add(breakpoint);
+			for (Script script : scripts.values()) {
+				if (breakpoint.pattern.matcher(script.url).find()) {
+					script.add(breakpoint);
+				}
+			}
+		}
+		return breakpoint;
+	}
+	
+	/**
+	 * Gets a breakpoint.
+	 *
+	 * @param breakpointId the breakpoint id as used in the debugging protocol
+	 * @return the breakpoint or null if there is no breakpoint with this id
+	 */
+	public Breakpoint get(String breakpointId) {
+		try {
+			return breakpoints.get(Integer.valueOf(breakpointId));
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+	
+	/**
+	 * Removes a breakpoint.
+	 *
+	 * @param breakpoint the breakpoint
+	 */
+	public void remove(Breakpoint breakpoint) {
+		if (breakpoints.remove(breakpoint.id) == null) {
+			return;
+		}
+		locations.remove(breakpoint.location);
+		if (breakpoint.url == null) {
+			regexBreakpoints.remove(breakpoint);
+		}
+		
+		for (Script script : breakpoint.scripts) {
+			script.breakpoints.remove(breakpoint);
+		}
+	}
+	
+	/**
+	 * Gets all breakpoints.
+	 *
+	 * @return the breakpoints in the order they were added
+	 */
+	public Collection<Breakpoint> getBreakpoints() {
+		return Collections.unmodifiableCollection(breakpoints.values());
+	}
+	
+	/**
+	 * Gets the URLs of the known scripts which have breakpoints.
+	 *
+	 * @return the script URLs
+	 */
+	public List<String> getScriptsWithBreakpoints() {
+		List<String> urls = new ArrayList<String>();
+		for (Script script : scripts.values()) {
+			if (!script.breakpoints.isEmpty()) {
+				urls.add(script.url);
+			}
+		}
+		return urls;
+	}
+	
+	/**
+	 * Gets the breakpoints of a script, the script becomes known if it's not known yet.
+	 *
+	 * @param url the script URL
+	 * @return the breakpoints
+	 */
+	public Collection<Breakpoint> getBreakpoints(String url) {
+		return Collections.unmodifiableCollection(getScript(url).breakpoints);
+	}
+	
+	/**
+	 * Adds a script to the known scripts, the URL regex breakpoints are matched against it.
+	 *
+	 * @param url the script URL
+	 */
+	public void addScript(String url) {
+		getScript(url);
+	}
+	
+	/**
+	 * Gets the URLs of the known scripts a breakpoint applies to. 
+	 * A breakpoint set by URL always applies to its script, even if the script was not parsed yet.
+	 *
+	 * @param breakpoint the breakpoint
+	 * @return the script URLs
+	 */
+	public List<String> getScripts(Breakpoint breakpoint) {
+		List<String> urls = new ArrayList<String>(breakpoint.scripts.size());
+		for (Script script : breakpoint.scripts) {
+			urls.add(script.url);
+		}
+		return urls;
+	}
+	
+	/**
+	 * Gets a known script or adds it. The URL regex breakpoints are matched against new scripts.
+	 *
+	 * @param url the script URL
+	 * @return the script
+	 */
+	private Script getScript(String url) {
+		Script script = scripts.get(url);
+		if (script == null) {
+			script = new Script(url);
+			for (Breakpoint breakpoint : regexBreakpoints) {
+				if (breakpoint.pattern.matcher(url).find()) {
+					script.add(breakpoint);
+				}
+			}
+			scripts.put(url, script);
+		}
+		return script;
+	}
+	
+	/**
+	 * A known script with the breakpoints which apply to it.
+	 */
+	private static class Script {
+		
+		/** The script URL. */
+		final String url;
+		
+		/** The breakpoints set by URL or matching URL regex. */
+		final Set<Breakpoint> breakpoints = new LinkedHashSet<Breakpoint>();
+		
+		/**
+		 * Instantiates a new script.
+		 *
+		 * @param url the script URL
+		 */
+		Script(String url) {
+			this.url = url;
+		}
+		
+		/**
+		 * Adds a breakpoint to the script.
+		 *
+		 * @param breakpoint the breakpoint
+		 */
+		void add(Breakpoint breakpoint) {
+			breakpoints.add(breakpoint);
+			breakpoint.scripts.add(this);
+		}
+	}
+	
+	/**
+	 * A breakpoint set by script URL or URL regex.
+	 */
+	public static class Breakpoint {
+		
+		/** The breakpoint id. */
+		final int id;
+		
+		/** The script URL, null for URL regex breakpoints. */
+		final String url;
+		
+		/** The compiled URL regex, null for URL breakpoints. */
+		final Pattern pattern;
+		
+		/** The line number. */
+		final int line;
+		
+		/** The condition. */
+		String condition;
+		
+		/** The location key. */
+		private final String location;
+		
+		/** The known scripts the breakpoint applies to. */
+		private final List<Script> scripts = new ArrayList<Script>();
+		
+		/**
+		 * Instantiates a new breakpoint.
+		 *
+		 * @param id the breakpoint id
+		 * @param url the script URL
+		 * @param pattern the URL regex
+		 * @param line the line number
+		 * @param condition the condition
+		 * @param location the location key
+		 */
+		Breakpoint(int id, String url, Pattern pattern, int line, String condition, String location) {
+			this.id = id;
+			this.url = url;
+			this.pattern = pattern;
+			this.line = line;
+			this.condition = condition;
+			this.location = location;
+		}
+		
+		/**
+		 * Gets the script URL.
+		 *
+		 * @return the script URL, null for URL regex breakpoints
+		 */
+		public String getUrl() {
+			return url;
+		}
+		
+		/**
+		 * Gets the URL regex.
+		 *
+		 * @return the URL regex, null for URL breakpoints
+		 */
+		public String getUrlRegex() {
+			return pattern != null ? pattern.pattern() : null;
+		}
+		
+		/**
+		 * Gets the line number.
+		 *
+		 * @return the line number
+		 */
+		public int getLine() {
+			return line;
+		}
+		
+		/**
+		 * Gets the condition.
+		 *
+		 * @return the condition or null
+		 */
+		public String getCondition() {
+			return condition;
+		}
+		
+		/**
+		 * Gets the breakpoint id used in the debugging protocol.
+		 *
+		 * @return the breakpoint id
+		 */
+		public String getBreakpointId() {
+			return String.valueOf(id);
+		}
+		
+		/* (non-Javadoc)
+		 * @see java.lang.Object#toString()
+		 */
+		@Override
+		public String toString() {
+			return "Breakpoint [id=" + id + ", url=" + (url != null ? url : pattern) + ", line=" + line
+					+ ", condition=" + condition + "]";
+		}
+	}
+}
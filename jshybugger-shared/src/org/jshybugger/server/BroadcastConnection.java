@@ -0,0 +1,64 @@
+/*
+ * Copyright 2013 Wolfgang Flohr-Hochbichler (developer@jshybugger.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jshybugger.server;
+import java.util.List;
+
+import org.webbitserver.WebSocketConnection;
+import org.webbitserver.wrapper.WebSocketConnectionWrapper;
+
+/**
+ * The BroadcastConnection sends every message to all debugger frontend connections.
+ * Message handlers render an event once and the same frame is written to every connection.
+ * All other operations are delegated to the first connection.
+ */
+class BroadcastConnection extends WebSocketConnectionWrapper {
+
+	/** The frontend connections. */
+	private final List<WebSocketConnection> connections;
+
+	/**
+	 * Instantiates a new broadcast connection.
+	 *
+	 * @param conn the connection for all operations except sending
+	 * @param connections the frontend connections, the list must be safe for iteration while connections are added or removed
+	 */
+	BroadcastConnection(WebSocketConnection conn, List<WebSocketConnection> connections) {
+		super(conn);
+		this.connections = connections;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.webbitserver.wrapper.WebSocketConnectionWrapper#send(java.lang.String)
+	 */
+	@Override
+	public WebSocketConnectionWrapper send(String message) {
+		for (WebSocketConnection conn : connections) {
+			conn.send(message);
+		}
+		return this;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.webbitserver.wrapper.WebSocketConnectionWrapper#send(byte[])
+	 */
+	@Override
+	public WebSocketConnectionWrapper send(byte[] message) {
+		for (WebSocketConnection conn : connections) {
+			conn.send(message);
+		}
+		return this;
+	}
+}
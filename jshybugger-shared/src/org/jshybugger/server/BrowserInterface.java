@@ -46,6 +46,13 @@ public interface BrowserInterface {
 	 */
 	public void sendToDebugService(String path, String data);
 
+	/**
+	 * Send a batch of messages to debug service.
+	 *
+	 * @param data one message per line, the message handler name followed by a space and the JSON data
+	 */
+	public void sendBatchToDebugService(String data);
+
 	/**
 	 * Send message to webview.
 	 *
@@ -56,6 +63,16 @@ public interface BrowserInterface {
 	 */
 	public void sendMsgToWebView(String command, JSONObject data, ReplyReceiver receiver) throws JSONException;
 	
+	/**
+	 * Send message with an already serialized payload to webview.
+	 *
+	 * @param command the command
+	 * @param data the serialized JSON payload, passed through unchanged
+	 * @param receiver an optional callback receiver
+	 * @throws JSONException some JSON exception occured
+	 */
+	public void sendRawMsgToWebView(String command, RawJSON data, ReplyReceiver receiver) throws JSONException;
+	
 	/**
 	 * Send reply to debug service.
 	 *
@@ -72,4 +89,36 @@ public interface BrowserInterface {
 	 * @throws InterruptedException the interrupted exception
 	 */
 	public String getQueuedMessage(boolean wait) throws InterruptedException;
+
+	/**
+	 * Gets all queued messages as one JSON array. Will be called by the webview.
+	 *
+	 * @param wait true will block the call till new data is available
+	 * @param maxBytes the max size of the batch, at least one message is returned
+	 * @return the JSON array with the queued messages or null if the queue is empty
+	 * @throws InterruptedException the interrupted exception
+	 */
+	public String getQueuedMessages(boolean wait, int maxBytes) throws InterruptedException;
+
+	/**
+	 * Gets the number of messages the webview hasn't replied yet.
+	 *
+	 * @return the pending reply count
+	 */
+	public int getPendingReplyCount();
+
+	/**
+	 * Gets the number of messages the webview hasn't replied in time.
+	 *
+	 * @return the reply timeout count
+	 */
+	public int getReplyTimeoutCount();
+
+	/**
+	 * Gets the queue wait time statistics, one entry per message priority.
+	 *
+	 * @return the queue statistics
+	 * @throws JSONException some JSON exception occured
+	 */
+	public JSONObject getQueueStatistics() throws JSONException;
 }
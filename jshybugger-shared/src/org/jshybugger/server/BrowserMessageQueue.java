@@ -0,0 +1,354 @@
+/*
+ * Copyright 2013 Wolfgang Flohr-Hochbichler (developer@jshybugger.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jshybugger.server;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * The BrowserMessageQueue holds the messages for the webview/browser.
+ * Producers never block, the single blocking consumer (the browser in sync queue mode) is
+ * parked while the queue is empty and woken up directly by the next producer.
+ * Messages are kept in one lane per {@link MessagePriority}, the consumer always gets the oldest
+ * message of the highest priority lane.
+ * The number of queued messages is limited, the {@link OverflowPolicy} decides which message is dropped
+ * if the queue is full. Messages of a priority which is not droppable, i.e. execution control and breakpoints,
+ * are never dropped, they evict the oldest message of the lowest priority lane instead.
+ * The limit is approximate, concurrent producers may exceed it by one message each.
+ */
+public class BrowserMessageQueue {
+
+	/** The default max number of queued messages. */
+	public static final int DEFAULT_CAPACITY = 1000;
+
+	/** The message lanes, indexed by priority ordinal. */
+	private final Lane[] lanes;
+
+	/** The parked consumer, null if no consumer is waiting. */
+	private final AtomicReference<Thread> waiter = new AtomicReference<Thread>();
+
+	/** The number of queued messages. */
+	private final AtomicInteger size = new AtomicInteger();
+	
+	/** The capacity. */
+	private volatile int capacity = DEFAULT_CAPACITY;
+	
+	/** The overflow policy. */
+	private volatile OverflowPolicy policy = OverflowPolicy.DROP_NEWEST;
+
+	/**
+	 * Instantiates a new browser message queue.
+	 */
+	public BrowserMessageQueue() {
+		MessagePriority[] priorities = MessagePriority.values();
+		lanes = new Lane[priorities.length];
+		for (int i=0; i < priorities.length; i++) {
+			lanes[i] = new Lane();
+		}
+	}
+
+	/**
+	 * Sets the queue limits. The policy BLOCK is not supported, the messages are sent from the 
+	 * debug session loop which must not wait for the webview.
+	 *
+	 * @param capacity the max number of queued messages
+	 * @param policy the overflow policy, DROP_OLDEST or DROP_NEWEST
+	 */
+	public void setLimits(int capacity, OverflowPolicy policy) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("capacity must be positive: " + capacity);
+		}
+		if (policy == OverflowPolicy.BLOCK) {
+			throw new IllegalArgumentException("overflow policy BLOCK is not supported by the webview message queue");
+		}
+		this.capacity = capacity;
+		this.policy = policy;
+	}
+
+	/**
+	 * Adds a message to the queue and wakes up a waiting consumer.
+	 * If the queue is full and no droppable message is queued, a message which is not droppable 
+	 * is queued beyond the capacity.
+	 *
+	 * @param message the message
+	 * @param priority the message priority
+	 * @return the dropped message, the given message itself if it was not queued, null if no message was dropped
+	 */
+	public String offer(String message, MessagePriority priority) {
+		Lane lane = lanes[priority.ordinal()];
+		String dropped = null;
+		
+		if (size.get() >= capacity) {
+			if (policy == OverflowPolicy.DROP_OLDEST || !priority.isDroppable()) {
+				dropped = dropOldest();
+			}
+			if (dropped == null && priority.isDroppable()) {
+				lane.dropped.incrementAndGet();
+				return message;
+			}
+		}
+		
+		size.incrementAndGet();
+		lane.offer(message);
+
+		Thread consumer = waiter.get();
+		if (consumer != null) {
+			LockSupport.unpark(consumer);
+		}
+		return dropped;
+	}
+
+	/**
+	 * Removes the oldest message of the lowest priority lane with droppable messages.
+	 *
+	 * @return the removed message or null if no droppable message is queued
+	 */
+	private String dropOldest() {
+		MessagePriority[] priorities = MessagePriority.values();
+		for (int i = lanes.length - 1; i >= 0; i--) {
+			if (!priorities[i].isDroppable()) {
+				continue;
+			}
+			QueuedMessage queued = lanes[i].messages.poll();
+			if (queued != null) {
+				lanes[i].dropped.incrementAndGet();
+				size.decrementAndGet();
+				return queued.message;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Removes the head of the queue without waiting.
+	 *
+	 * @return the message or null if the queue is empty
+	 */
+	public String poll() {
+		for (Lane lane : lanes) {
+			String message = lane.poll();
+			if (message != null) {
+				size.decrementAndGet();
+				return message;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Removes the head of the queue if it is not longer than the given length.
+	 *
+	 * @param maxLength the max length of the message
+	 * @return the message or null if the queue is empty or the head is too long
+	 */
+	public String pollIfFits(int maxLength) {
+		for (Lane lane : lanes) {
+			QueuedMessage queued;
+			while ((queued = lane.messages.peek()) != null) {
+				if (queued.message.length() > maxLength) {
+					return null;
+				}
+				// a producer might have dropped the checked message, the new head is checked again
+				if (lane.remove(queued)) {
+					size.decrementAndGet();
+					return queued.message;
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Removes the head of the queue, waits if necessary.
+	 * Only one thread may wait at a time.
+	 *
+	 * @param maxWaitTime the max wait time in milliseconds, 0 waits forever
+	 * @return the message or null if the wait time elapsed
+	 * @throws InterruptedException the waiting thread was interrupted
+	 */
+	public String take(long maxWaitTime) throws InterruptedException {
+
+		String message = poll();
+		if (message != null) {
+			return message;
+		}
+
+		Thread current = Thread.currentThread();
+		waiter.set(current);
+		try {
+			long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxWaitTime);
+
+			// re-check after registration - a producer might have missed the waiter
+			while ((message = poll()) == null) {
+				if (Thread.interrupted()) {
+					throw new InterruptedException();
+				}
+
+				if (maxWaitTime > 0) {
+					long remaining = deadline - System.nanoTime();
+					if (remaining <= 0) {
+						return null;
+					}
+					LockSupport.parkNanos(this, remaining);
+				} else {
+					LockSupport.park(this);
+				}
+			}
+			return message;
+
+		} finally {
+			waiter.compareAndSet(current, null);
+		}
+	}
+
+	/**
+	 * Checks if the queue is empty.
+	 *
+	 * @return true, if is empty
+	 */
+	public boolean isEmpty() {
+		for (Lane lane : lanes) {
+			if (!lane.messages.isEmpty()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Gets the queue wait time statistics, one entry per priority lane.
+	 *
+	 * @return the statistics
+	 * @throws JSONException some JSON exception occured
+	 */
+	public JSONObject getStatistics() throws JSONException {
+		JSONObject statistics = new JSONObject();
+		for (MessagePriority priority : MessagePriority.values()) {
+			Lane lane = lanes[priority.ordinal()];
+			long delivered = lane.delivered.get();
+			statistics.put(priority.getStatisticsName(), new JSONObject()
+					.put("queued", lane.messages.size())
+					.put("delivered", delivered)
+					.put("dropped", lane.dropped.get())
+					.put("avgWaitTime", delivered > 0 ? TimeUnit.NANOSECONDS.toMillis(lane.totalWaitTime.get() / delivered) : 0)
+					.put("maxWaitTime", TimeUnit.NANOSECONDS.toMillis(lane.maxWaitTime.get())));
+		}
+		return statistics;
+	}
+
+	/**
+	 * The Lane holds the messages of one priority in FIFO order.
+	 */
+	private static class Lane {
+
+		/** The messages. */
+		private final ConcurrentLinkedQueue<QueuedMessage> messages = new ConcurrentLinkedQueue<QueuedMessage>();
+
+		/** The number of delivered messages. */
+		private final AtomicLong delivered = new AtomicLong();
+
+		/** The number of dropped messages. */
+		private final AtomicLong dropped = new AtomicLong();
+
+		/** The summed queue wait time of the delivered messages in nanoseconds. */
+		private final AtomicLong totalWaitTime = new AtomicLong();
+
+		/** The longest queue wait time in nanoseconds. */
+		private final AtomicLong maxWaitTime = new AtomicLong();
+
+		/**
+		 * Adds a message to the lane.
+		 *
+		 * @param message the message
+		 */
+		void offer(String message) {
+			messages.offer(new QueuedMessage(message));
+		}
+
+		/**
+		 * Removes the oldest message and records its wait time.
+		 *
+		 * @return the message or null if the lane is empty
+		 */
+		String poll() {
+			QueuedMessage queued = messages.poll();
+			if (queued == null) {
+				return null;
+			}
+
+			recordDelivery(queued);
+			return queued.message;
+		}
+
+		/**
+		 * Removes the given message and records its wait time.
+		 *
+		 * @param queued the queued message
+		 * @return true, if the message was removed by this call
+		 */
+		boolean remove(QueuedMessage queued) {
+			if (!messages.remove(queued)) {
+				return false;
+			}
+			
+			recordDelivery(queued);
+			return true;
+		}
+		
+		/**
+		 * Records the wait time of a delivered message.
+		 *
+		 * @param queued the delivered message
+		 */
+		private void recordDelivery(QueuedMessage queued) {
+			long waitTime = System.nanoTime() - queued.enqueueTime;
+			delivered.incrementAndGet();
+			totalWaitTime.addAndGet(waitTime);
+			long max;
+			while (waitTime > (max = maxWaitTime.get()) && !maxWaitTime.compareAndSet(max, waitTime)) {
+				// retry
+			}
+		}
+	}
+
+	/**
+	 * The QueuedMessage remembers when a message was queued.
+	 */
+	private static class QueuedMessage {
+
+		/** The message. */
+		final String message;
+
+		/** The enqueue time in nanoseconds. */
+		final long enqueueTime = System.nanoTime();
+
+		/**
+		 * Instantiates a new queued message.
+		 *
+		 * @param message the message
+		 */
+		QueuedMessage(String message) {
+			this.message = message;
+		}
+	}
+}
@@ -15,8 +15,6 @@
  */
 package org.jshybugger.server;
 
-import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 
 import org.json.JSONException;
@@ -31,10 +29,14 @@ import org.webbitserver.WebSocketConnection;
  */
 public class ConsoleMsgHandler extends AbstractMsgHandler {
 
-	/** The methods available. */
-	private final HashMap<String,Boolean> METHODS_AVAILABLE = new HashMap<String, Boolean>(); 
+	/** The default number of messages kept in the console history. */
+	public static final int DEFAULT_BUFFER_CAPACITY = 1000;
 	
-	private final List<JSONObject> storedMessages = new ArrayList<JSONObject>();
+	/** The default time the page waits for a debugger frontend with overflow policy BLOCK. */
+	public static final long DEFAULT_BLOCK_TIMEOUT = 1000;
+	
+	/** The console history, consecutive identical messages are stored once with a repeat count. */
+	private final BoundedBuffer<ConsoleMessage> storedMessages = new BoundedBuffer<ConsoleMessage>(DEFAULT_BUFFER_CAPACITY, OverflowPolicy.DROP_OLDEST, DEFAULT_BLOCK_TIMEOUT);
 
 	/**
 	 * Instantiates a new console msg handler.
@@ -44,41 +46,84 @@ public class ConsoleMsgHandler extends AbstractMsgHandler {
 	public ConsoleMsgHandler(DebugSession debugServer) {
 		super(debugServer, "Console");
 
-		METHODS_AVAILABLE.put("enable", true);
+		addMethodHandler("enable", new MethodHandler() {
+
+			@Override
+			public void onReceiveMessage(WebSocketConnection conn, JSONObject message) throws JSONException {
+				sendResultMessage(conn, message, true);
+				pushStoredMessages(conn);
+			}
+		});
+		
+		addAckMethods("addInspectedNode");
 	}
 
-	/* (non-Javadoc)
-	 * @see de.cyberflohrs.jshybugger.server.AbstractMsgHandler#onReceiveMessage(org.webbitserver.WebSocketConnection, java.lang.String, org.json.JSONObject)
+	/**
+	 * Sets the limits of the console history. The overflow policy applies to messages which were not 
+	 * delivered to a debugger frontend yet, delivered messages are overwritten by newer ones.
+	 *
+	 * @param capacity the max number of stored messages
+	 * @param policy the overflow policy
+	 * @param blockTimeout the max time in milliseconds the page waits for a debugger frontend with policy BLOCK
 	 */
-	@Override
-	public void onReceiveMessage(WebSocketConnection conn, String method, JSONObject message) throws JSONException {
-		
-		if (METHODS_AVAILABLE.containsKey(method)) {
-			
-			JSONObject reply = new JSONObject();
-			
-			reply.put("id", message.getInt("id"));
-			reply.put("result", new JSONObject().put("result", METHODS_AVAILABLE.get(method)));
-			
-			
-			conn.send(reply.toString());
-			
-			pushStoredMessages(conn);
-			
-		} else if ("addInspectedNode".equals(method)) {
-			sendAckMessage(conn, message);
-			
-		} else {
-			super.onReceiveMessage(conn, method, message);
-		}
+	public void setBufferLimits(int capacity, OverflowPolicy policy, long blockTimeout) {
+		storedMessages.setLimits(capacity, policy, blockTimeout);
 	}
 	
 	
+	/**
+	 * Sends the console history to a debugger frontend. The history is kept for other debugger frontends.
+	 *
+	 * @param conn the websocket connection
+	 * @throws JSONException the jSON exception
+	 */
 	private void pushStoredMessages(WebSocketConnection conn) throws JSONException {
-		for (JSONObject msg : storedMessages) {
-			sendMessageAdded(conn, msg);			
+		List<ConsoleMessage> messages = storedMessages.getMessages();
+		int dropped = storedMessages.getDroppedCount();
+		int overwritten = storedMessages.getOverwrittenCount();
+		storedMessages.markDelivered();
+		
+		// the notices are placed where the messages are missing
+		if (overwritten > 0) {
+			sendConsoleWarning(conn, overwritten + " older console messages are not shown, the console history is full");
+		}
+		boolean oldestDropped = storedMessages.getPolicy() == OverflowPolicy.DROP_OLDEST;
+		if (dropped > 0 && oldestDropped) {
+			sendMessagesDropped(conn, dropped);
+		}
+		for (ConsoleMessage msg : messages) {
+			sendRawEvent(conn, "Console.messageAdded", msg.toParams());
+		}
+		if (dropped > 0 && !oldestDropped) {
+			sendMessagesDropped(conn, dropped);
 		}
-		storedMessages.clear();
+	}
+	
+	/**
+	 * Send a warning about dropped console messages to debugger frontend.
+	 *
+	 * @param conn the websocket connection
+	 * @param dropped the number of dropped messages
+	 * @throws JSONException the jSON exception
+	 */
+	private void sendMessagesDropped(WebSocketConnection conn, int dropped) throws JSONException {
+		sendConsoleWarning(conn, dropped + " console messages dropped before a debugger was connected, the message buffer was full");
+	}
+	
+	/**
+	 * Send a warning to the console of the debugger frontend, the warning isn't stored in the console history.
+	 *
+	 * @param conn the websocket connection
+	 * @param text the warning text
+	 * @throws JSONException the jSON exception
+	 */
+	private void sendConsoleWarning(WebSocketConnection conn, String text) throws JSONException {
+		sendRawEvent(conn, "Console.messageAdded", new RawJSON(new JSONObject().put("message", new JSONObject()
+				.put("level", "warning")
+				.put("source", "other")
+				.put("type", "log")
+				.put("repeatCount", 1)
+				.put("text", text)).toString()));
 	}
 
 	/* (non-Javadoc)
@@ -89,7 +134,7 @@ public class ConsoleMsgHandler extends AbstractMsgHandler {
 			throws JSONException {
 		
 		if ("messageAdded".equals(method)) {
-			sendMessageAdded(conn, message);
+			sendMessageAdded(conn, new RawJSON(message.toString()));
 		} else if (method.equals("GlobalInitHybugger")) {
 			sendMessagesCleared(conn);			
 		} else {
@@ -97,6 +142,29 @@ public class ConsoleMsgHandler extends AbstractMsgHandler {
 		}
 	}
 
+	/* (non-Javadoc)
+	 * @see org.jshybugger.server.AbstractMsgHandler#awaitCapacity(java.lang.String)
+	 */
+	@Override
+	public void awaitCapacity(String method) {
+		// the message will be stored, with policy BLOCK the page waits for a debugger frontend
+		if ("messageAdded".equals(method) && !debugSession.isConnected()) {
+			storedMessages.awaitSpace();
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see org.jshybugger.server.AbstractMsgHandler#onSendRawMessage(org.webbitserver.WebSocketConnection, java.lang.String, org.jshybugger.server.RawJSON)
+	 */
+	@Override
+	public void onSendRawMessage(WebSocketConnection conn, String method, RawJSON message) throws JSONException {
+		if ("messageAdded".equals(method)) {
+			sendMessageAdded(conn, message);
+		} else {
+			super.onSendRawMessage(conn, method, message);
+		}
+	}
+
 	/**
 	 * Send "Console.messagesCleared" message to debugger frontend.
 	 *
@@ -115,22 +183,89 @@ public class ConsoleMsgHandler extends AbstractMsgHandler {
 	}
 	
 	/**
-	 * Send "Console.messageAdded" message to debugger frontend.
+	 * Send "Console.messageAdded" message to debugger frontend and adds it to the console history.
+	 * A message which is identical to the previous one only increases the repeat count of the previous 
+	 * message, the debugger frontend gets a "Console.messageRepeatCountUpdated" message.
 	 *
-	 * @param conn the conn
-	 * @param msg the msg
+	 * @param conn the websocket connection
+	 * @param params the serialized message params
 	 * @throws JSONException the jSON exception
 	 */
-	private void sendMessageAdded(WebSocketConnection conn, JSONObject msg) throws JSONException {
+	private void sendMessageAdded(WebSocketConnection conn, RawJSON params) throws JSONException {
 		
+		RawJSON message = params.opt("message");
+		if (message == null) {
+			return;
+		}
+		// the page collapses repeated messages of one batch, the count is not part of the message identity 
+		int repeatCount = message.optInt("repeatCount", 1);
+		String text = message.without("repeatCount").toJSONString();
+		
+		ConsoleMessage last = storedMessages.getLast();
+		if (last != null && last.text.equals(text)) {
+			last.repeatCount += repeatCount;
+			if (conn != null) {
+				conn.send(new JSONStringer().object()
+						.key("method").value("Console.messageRepeatCountUpdated")
+						.key("params").object()
+							.key("count").value(last.repeatCount)
+						.endObject()
+					.endObject()
+					.toString());
+			}
+			return;
+		}
+		
+		ConsoleMessage msg = new ConsoleMessage(params, text, repeatCount);
 		if (conn != null) {
-			conn.send(new JSONStringer().object()
-					.key("method").value("Console.messageAdded")
-					.key("params").value(msg)
-				.endObject()
-				.toString());
+			sendRawEvent(conn, "Console.messageAdded", params);
+			storedMessages.addDelivered(msg);
 		} else {
 			storedMessages.add(msg);
 		}
 	}
+	
+	/**
+	 * A console history entry.
+	 */
+	private static class ConsoleMessage {
+		
+		/** The serialized message params as received from the page. */
+		final RawJSON params;
+		
+		/** The serialized message without repeat count. */
+		final String text;
+		
+		/** The repeat count. */
+		int repeatCount;
+		
+		/** The repeat count in the received params. */
+		private final int receivedRepeatCount;
+		
+		/**
+		 * Instantiates a new console message.
+		 *
+		 * @param params the serialized message params
+		 * @param text the serialized message without repeat count
+		 * @param repeatCount the repeat count
+		 */
+		ConsoleMessage(RawJSON params, String text, int repeatCount) {
+			this.params = params;
+			this.text = text;
+			this.repeatCount = repeatCount;
+			this.receivedRepeatCount = repeatCount;
+		}
+		
+		/**
+		 * Gets the message params with the current repeat count.
+		 *
+		 * @return the serialized message params
+		 */
+		RawJSON toParams() {
+			if (repeatCount == receivedRepeatCount) {
+				return params;
+			}
+			return new RawJSON("{\"message\":{\"repeatCount\":" + repeatCount + (text.length() > 2 ? "," : "") + text.substring(1) + "}");
+		}
+	}
 }
@@ -10,31 +10,24 @@ public class DOMMsgHandler extends AbstractMsgHandler {
 	public DOMMsgHandler(DebugSession debugSession) {
 		super(debugSession, "DOM");
 		
-	}
+		addBrowserMethods("getDocument");
+		addAckMethods("markUndoableState", "highlightNode", "hideHighlight");
 
-	/* (non-Javadoc)
-	 * @see de.cyberflohrs.jshybugger.server.AbstractMsgHandler#onReceiveMessage(org.webbitserver.WebSocketConnection, java.lang.String, org.json.JSONObject)
-	 */
-	@Override
-	public void onReceiveMessage(WebSocketConnection conn, String method, JSONObject message) throws JSONException {
-		
-		if ("getDocument".equals(method)) {
-			dispatchToBrowserAndReply(conn, method, message);
-		
-		} else if ("requestChildNodes".equals(method)) {
-			requestChildNodes(conn, message);
-		
-		} else if ("removeNode".equals(method)) {
-			removeNode(conn, message);
+		addMethodHandler("requestChildNodes", new MethodHandler() {
 
-		} else if ("markUndoableState".equals(method) ||
-				"highlightNode".equals(method) ||
-				"hideHighlight".equals(method)) {
-			sendAckMessage(conn, message);
-			
-		} else {
-			super.onReceiveMessage(conn, method, message);
-		}
+			@Override
+			public void onReceiveMessage(WebSocketConnection conn, JSONObject message) throws JSONException {
+				requestChildNodes(conn, message);
+			}
+		});
+
+		addMethodHandler("removeNode", new MethodHandler() {
+
+			@Override
+			public void onReceiveMessage(WebSocketConnection conn, JSONObject message) throws JSONException {
+				removeNode(conn, message);
+			}
+		});
 	}
 
 	/* (non-Javadoc)
@@ -75,7 +68,7 @@ public class DOMMsgHandler extends AbstractMsgHandler {
 		debugSession.getBrowserInterface().sendMsgToWebView(
 				"requestChildNodes",
 				new JSONObject().put("params", message.getJSONObject("params")),
-				new ReplyReceiver() {
+				new ProtocolReplyReceiver(conn, message) {
 
 			@Override
 			public void onReply(JSONObject data) throws JSONException {
@@ -96,7 +89,7 @@ public class DOMMsgHandler extends AbstractMsgHandler {
 		debugSession.getBrowserInterface().sendMsgToWebView(
 				"removeNode",
 				new JSONObject().put("params", message.getJSONObject("params")),
-				new ReplyReceiver() {
+				new ProtocolReplyReceiver(conn, message) {
 
 			@Override
 			public void onReply(JSONObject data) throws JSONException {
@@ -7,28 +7,38 @@ import org.webbitserver.WebSocketConnection;
 
 public class DOMStorageMsgHandler extends AbstractMsgHandler {
 
+	/** The default max number of DOMStorage events the page sends per second. */
+	public static final int DEFAULT_EVENT_LIMIT = 1000;
+	
+	/** The max number of DOMStorage events the page sends per second. */
+	private volatile int eventLimit = DEFAULT_EVENT_LIMIT;
+	
+	/** The overflow policy of the page if the event limit is reached. */
+	private volatile OverflowPolicy eventPolicy = OverflowPolicy.DROP_NEWEST;
+	
 	public DOMStorageMsgHandler(DebugSession debugSession) {
 		super(debugSession, "DOMStorage");
+		
+		addAckMethods("enable");
+		addBrowserMethods("getDOMStorageItems", "removeDOMStorageItem", "setDOMStorageItem");
 	}
 
-	/* (non-Javadoc)
-	 * @see de.cyberflohrs.jshybugger.server.AbstractMsgHandler#onReceiveMessage(org.webbitserver.WebSocketConnection, java.lang.String, org.json.JSONObject)
+	/**
+	 * Sets the limit of the DOMStorage events the page sends to the debugger. The limits are 
+	 * sent to the page when it is loaded. The policy BLOCK is not supported, the page can't wait.
+	 *
+	 * @param eventLimit the max number of events per second
+	 * @param policy the overflow policy, DROP_OLDEST drops the oldest event which the page didn't send yet
 	 */
-	@Override
-	public void onReceiveMessage(WebSocketConnection conn, String method, JSONObject message) throws JSONException {
-		
-		if ("enable".equals(method)) {
-			sendAckMessage(conn, message);
-			
-		} else if ("getDOMStorageItems".equals(method)) {
-			getDOMStorageItems(conn, message);
-		
-		} else if ("removeDOMStorageItem".equals(method)) {
-			removeDOMStorageItem(conn, message);
-
-		} else if ("setDOMStorageItem".equals(method)) {
-			setDOMStorageItem(conn, message);
+	public void setEventLimits(int eventLimit, OverflowPolicy policy) {
+		if (eventLimit < 1) {
+			throw new IllegalArgumentException("event limit must be positive: " + eventLimit);
+		}
+		if (policy == OverflowPolicy.BLOCK) {
+			throw new IllegalArgumentException("overflow policy BLOCK is not supported for DOMStorage events");
 		}
+		this.eventLimit = eventLimit;
+		this.eventPolicy = policy;
 	}
 
 	/* (non-Javadoc)
@@ -50,11 +60,40 @@ public class DOMStorageMsgHandler extends AbstractMsgHandler {
 		} else if ("domStorageItemsCleared".equals(method)) {
 			sendDOMStorageItemsCleared(conn, message);
 
+		} else if ("GlobalInitHybugger".equals(method)) {
+			sendEventLimits();
+			
 		} else {
 			super.onSendMessage(conn, method, message);
 		}
 	}
 	
+	/* (non-Javadoc)
+	 * @see org.jshybugger.server.AbstractMsgHandler#onSendRawMessage(org.webbitserver.WebSocketConnection, java.lang.String, org.jshybugger.server.RawJSON)
+	 */
+	@Override
+	public void onSendRawMessage(WebSocketConnection conn, String method, RawJSON message) throws JSONException {
+		if ("domStorageItemAdded".equals(method) || "domStorageItemUpdated".equals(method) 
+				|| "domStorageItemRemoved".equals(method) || "domStorageItemsCleared".equals(method)) {
+			sendRawEvent(conn, "DOMStorage." + method, message);
+		} else {
+			super.onSendRawMessage(conn, method, message);
+		}
+	}
+	
+	/**
+	 * Send the event limits to the page, if they differ from the page defaults.
+	 *
+	 * @throws JSONException the jSON exception
+	 */
+	private void sendEventLimits() throws JSONException {
+		if (eventLimit != DEFAULT_EVENT_LIMIT || eventPolicy != OverflowPolicy.DROP_NEWEST) {
+			debugSession.getBrowserInterface().sendMsgToWebView("storage-limits", new JSONObject()
+					.put("limit", eventLimit)
+					.put("policy", eventPolicy.getConfigName()), null);
+		}
+	}
+	
 	private void sendDOMStorageItemsCleared(WebSocketConnection conn,
 			JSONObject message) throws JSONException {
 
@@ -102,59 +141,5 @@ public class DOMStorageMsgHandler extends AbstractMsgHandler {
 			.toString());
 		}		
 	}
-
-	private void getDOMStorageItems(final WebSocketConnection conn, final JSONObject message) throws JSONException {
-		
-		debugSession.getBrowserInterface().sendMsgToWebView(
-				"getDOMStorageItems",
-				new JSONObject().put("params", message.getJSONObject("params")),
-				new ReplyReceiver() {
-
-			@Override
-			public void onReply(JSONObject data) throws JSONException {
-				
-				conn.send(new JSONStringer().object()
-						.key("id").value(message.getInt("id"))
-						.key("result").value(data)
-						.endObject().toString());
-			}
-		});
-	}
-	
-	private void setDOMStorageItem(final WebSocketConnection conn, final JSONObject message) throws JSONException {
-		
-		debugSession.getBrowserInterface().sendMsgToWebView(
-				"setDOMStorageItem",
-				new JSONObject().put("params", message.getJSONObject("params")),
-				new ReplyReceiver() {
-
-			@Override
-			public void onReply(JSONObject data) throws JSONException {
-				
-				conn.send(new JSONStringer().object()
-						.key("id").value(message.getInt("id"))
-						.key("result").value(data)
-						.endObject().toString());
-			}
-		});
-	}
-
-	private void removeDOMStorageItem(final WebSocketConnection conn, final JSONObject message) throws JSONException {
-		
-		debugSession.getBrowserInterface().sendMsgToWebView(
-				"removeDOMStorageItem",
-				new JSONObject().put("params", message.getJSONObject("params")),
-				new ReplyReceiver() {
-
-			@Override
-			public void onReply(JSONObject data) throws JSONException {
-				
-				conn.send(new JSONStringer().object()
-						.key("id").value(message.getInt("id"))
-						.key("result").value(data)
-						.endObject().toString());
-			}
-		});
-	}
 	
 }
@@ -7,29 +7,20 @@ import org.webbitserver.WebSocketConnection;
 
 public class DatabaseMsgHandler extends AbstractMsgHandler {
 
-	public DatabaseMsgHandler(DebugSession debugSession) {
+	public DatabaseMsgHandler(final DebugSession debugSession) {
 		super(debugSession, "Database");
-	}
-	
-	/* (non-Javadoc)
-	 * @see de.cyberflohrs.jshybugger.server.AbstractMsgHandler#onReceiveMessage(org.webbitserver.WebSocketConnection, java.lang.String, org.json.JSONObject)
-	 */
-	@Override
-	public void onReceiveMessage(WebSocketConnection conn, String method, JSONObject message) throws JSONException {
-		if ("enable".equals(method)) {
-			sendAckMessage(conn, message);
-			debugSession.getBrowserInterface().sendMsgToWebView(
-					"Database.enable", new JSONObject(), null);
 
-		} else if ("getDatabaseTableNames".equals(method)) {
-			getDatabaseTableNames(conn, message);
+		addMethodHandler("enable", new MethodHandler() {
 
-		} else if ("executeSQL".equals(method)) {
-			executeSQL(conn, message);
-			
-		} else {
-			super.onReceiveMessage(conn, method, message);
-		}
+			@Override
+			public void onReceiveMessage(WebSocketConnection conn, JSONObject message) throws JSONException {
+				sendAckMessage(conn, message);
+				debugSession.getBrowserInterface().sendMsgToWebView(
+						"Database.enable", new JSONObject(), null);
+			}
+		});
+		
+		addBrowserMethods("getDatabaseTableNames", "executeSQL");
 	}
 	
 
@@ -47,43 +38,17 @@ public class DatabaseMsgHandler extends AbstractMsgHandler {
 			super.onSendMessage(conn, method, message);
 		}
 	}
-
-	private void executeSQL(final WebSocketConnection conn,
-			final JSONObject message) throws JSONException {
-		
-		debugSession.getBrowserInterface().sendMsgToWebView(
-				"executeSQL",
-				new JSONObject().put("params", message.getJSONObject("params")),
-				new ReplyReceiver() {
-
-			@Override
-			public void onReply(JSONObject data) throws JSONException {
-				
-				conn.send(new JSONStringer().object()
-						.key("id").value(message.getInt("id"))
-						.key("result").value(data)
-						.endObject().toString());
-			}
-		});		
-	}
-
-	private void getDatabaseTableNames(final WebSocketConnection conn,
-			final JSONObject message) throws JSONException {
-		
-		debugSession.getBrowserInterface().sendMsgToWebView(
-				"getDatabaseTableNames",
-				new JSONObject().put("params", message.getJSONObject("params")),
-				new ReplyReceiver() {
-
-			@Override
-			public void onReply(JSONObject data) throws JSONException {
-				
-				conn.send(new JSONStringer().object()
-						.key("id").value(message.getInt("id"))
-						.key("result").value(data)
-						.endObject().toString());
-			}
-		});		
+	
+	/* (non-Javadoc)
+	 * @see org.jshybugger.server.AbstractMsgHandler#onSendRawMessage(org.webbitserver.WebSocketConnection, java.lang.String, org.jshybugger.server.RawJSON)
+	 */
+	@Override
+	public void onSendRawMessage(WebSocketConnection conn, String method, RawJSON message) throws JSONException {
+		if ("addDatabase".equals(method)) {
+			sendRawEvent(conn, "Database.addDatabase", message);
+		} else {
+			super.onSendRawMessage(conn, method, message);
+		}
 	}
 
 	private void addDatabase(final WebSocketConnection conn, final JSONObject message) throws JSONException {
@@ -16,8 +16,8 @@
 package org.jshybugger.server;
 
 import java.io.IOException;
-import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.CountDownLatch;
 
 import org.json.JSONException;
@@ -29,6 +29,7 @@ import org.webbitserver.HttpRequest;
 import org.webbitserver.HttpResponse;
 import org.webbitserver.WebServer;
 import org.webbitserver.WebServers;
+import org.webbitserver.WebSocketHandler;
 
 
 /**
@@ -41,7 +42,7 @@ public class DebugServer {
 	private WebServer webServer;
 	
 	private CountDownLatch debugServerStarted = new CountDownLatch(1);
-	private List<DebugSession> debugSessions  = new ArrayList<DebugSession>();
+	private final List<DebugSession> debugSessions  = new CopyOnWriteArrayList<DebugSession>();
 	
 	/**
 	 * Instantiates a new debug server.
@@ -87,6 +88,24 @@ public class DebugServer {
 							}
 	                    }
 	                })
+	                .add("/json/stats", new HttpHandler() {
+	                    @Override
+	                    public void handleHttpRequest(HttpRequest request, HttpResponse response, HttpControl control) {
+	                    	try {
+	                    		JSONWriter res = new JSONStringer().array();
+								for (DebugSession dbgSession : debugSessions) {
+									res.value(dbgSession.getStatistics());
+								}
+								
+								response.header("Content-type", "application/json")
+									.content(res.endArray().toString())
+									.end();
+								
+							} catch (JSONException e) {
+								e.printStackTrace();
+							}
+	                    }
+	                })
 	                .add("/json", new HttpHandler() {
 	                    @Override
 	                    public void handleHttpRequest(HttpRequest request, HttpResponse response, HttpControl control) {
@@ -139,6 +158,11 @@ public class DebugServer {
 		webServer.add(path, handler);
 	}
 
+	public void addWebSocketHandler(String path, WebSocketHandler handler) throws InterruptedException {
+		debugServerStarted.await();
+		webServer.add(path, handler);
+	}
+
 	public void stop() {
 		if (webServer != null) {
 			webServer.stop();
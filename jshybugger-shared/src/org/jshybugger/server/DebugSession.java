@@ -15,13 +15,26 @@
  */
 package org.jshybugger.server;
 
+import java.io.File;
 import java.io.IOException;
 import java.net.UnknownHostException;
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map.Entry;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
 
+import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 import org.json.JSONStringer;
@@ -38,47 +51,104 @@ public abstract class DebugSession extends BaseWebSocketHandler {
 	/** The message handler list. */
 	protected final HashMap<String,MessageHandler> HANDLERS = new HashMap<String,MessageHandler>(); 
 	
-	/** The client connection list. */
-	private List<WebSocketConnection> connections = new ArrayList<WebSocketConnection>(); 		
+	/** The method handlers by protocol method name i.e. "Debugger.resume". */
+	private final HashMap<String,MethodHandler> METHODS = new HashMap<String,MethodHandler>(); 
+	
+	/** The client connection list with the metered connections, copied on write so events can be sent while clients connect or disconnect. */
+	private final List<WebSocketConnection> connections = new CopyOnWriteArrayList<WebSocketConnection>(); 		
+	
+	/** The shared threads which run the session event loops. */
+	private static final ExecutorService SESSION_THREADS = Executors.newCachedThreadPool(new ThreadFactory() {
+		
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "jsHybuggerSession");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+	
+	/** The session event loop, all handler logic and session state changes run on it. */
+	private final SerialExecutor executor = new SerialExecutor(SESSION_THREADS);
+	
+	/** The page messages which are handled before the page continues, the page expects the commands queued by their handlers, i.e. the breakpoints of a parsed script. */
+	private static final Set<String> SYNCHRONOUS_MESSAGES = new HashSet<String>(Arrays.asList("GlobalInitHybugger", "Debugger.scriptParsed"));
+	
+	/** The connection data key of the metered connection. */
+	private static final String METERED_CONNECTION = "jsHybuggerMetered";
 	
 	/** The browser API interface. */
 	private BrowserInterface browserInterface;
 	
+	/** The cache of loaded script sources. */
+	private final ScriptSourceCache sourceCache = new ScriptSourceCache(ScriptSourceCache.DEFAULT_MAX_SIZE);
+	
+	/** The store of the debugger state, i.e. the breakpoints. */
+	private final DebuggerStateStore stateStore;
+	
 	private final String sessionId;
 	
 	
 	/**
-	 * Instantiates a new debug server.
+	 * Instantiates a new debug session, the debugger state is not stored.
 	 *
-	 * @param application the application context
 	 * @throws UnknownHostException the unknown host exception
 	 */
 	public DebugSession() throws UnknownHostException {
+		this(null);
+	}
+	
+	/**
+	 * Instantiates a new debug session. The breakpoints and debugger settings are stored in the state file 
+	 * and restored by the next session, so that they are set in the page before the debugger frontend connects.
+	 *
+	 * @param stateFile the debugger state file, null if the state should not be stored
+	 * @throws UnknownHostException the unknown host exception
+	 */
+	public DebugSession(File stateFile) throws UnknownHostException {
 		
-		MessageHandler msgHandler = new DebuggerMsgHandler(this);
-		HANDLERS.put(msgHandler.getObjectName(), msgHandler);
-
-		msgHandler = new ConsoleMsgHandler(this);
-		HANDLERS.put(msgHandler.getObjectName(), msgHandler);
-		
-		msgHandler = new RuntimeMsgHandler(this);
-		HANDLERS.put(msgHandler.getObjectName(), msgHandler);
-
-		msgHandler = new PageMsgHandler(this);
-		HANDLERS.put(msgHandler.getObjectName(), msgHandler);
-
-		msgHandler = new DOMStorageMsgHandler(this);
-		HANDLERS.put(msgHandler.getObjectName(), msgHandler);
-
-		msgHandler = new DatabaseMsgHandler(this);
-		HANDLERS.put(msgHandler.getObjectName(), msgHandler);
+		// must be available before the message handlers restore their state
+		stateStore = new DebuggerStateStore(stateFile);
 		
-		//msgHandler = new DOMMsgHandler(this);
-		//HANDLERS.put(msgHandler.getObjectName(), msgHandler);
+		addMessageHandler(new DebuggerMsgHandler(this));
+		addMessageHandler(new ConsoleMsgHandler(this));
+		addMessageHandler(new RuntimeMsgHandler(this));
+		addMessageHandler(new PageMsgHandler(this));
+		addMessageHandler(new DOMStorageMsgHandler(this));
+		addMessageHandler(new DatabaseMsgHandler(this));
+		//addMessageHandler(new DOMMsgHandler(this));
+		//addMessageHandler(new CssMsgHandler(this));
 
-		//msgHandler = new CssMsgHandler(this);
-		//HANDLERS.put(msgHandler.getObjectName(), msgHandler);
 		sessionId = UUID.randomUUID().toString();
+		
+		// a burst of frames ends when the event loop becomes idle
+		executor.setIdleTask(new Runnable() {
+			
+			@Override
+			public void run() {
+				for (WebSocketConnection conn : connections) {
+					((MeteredConnection)conn).endBurst();
+				}
+			}
+		});
+	}
+	
+	/**
+	 * Adds a message handler and registers its protocol methods. 
+	 * An already registered handler with the same name is replaced.
+	 *
+	 * @param msgHandler the message handler
+	 */
+	protected void addMessageHandler(MessageHandler msgHandler) {
+		MessageHandler oldHandler = HANDLERS.put(msgHandler.getObjectName(), msgHandler);
+		if (oldHandler != null) {
+			for (String method : oldHandler.getMethodHandlers().keySet()) {
+				METHODS.remove(oldHandler.getObjectName() + "." + method);
+			}
+		}
+		for (Entry<String,MethodHandler> entry : msgHandler.getMethodHandlers().entrySet()) {
+			METHODS.put(msgHandler.getObjectName() + "." + entry.getKey(), entry.getValue());
+		}
 	}
 	
 	public void setBrowserInterface(BrowserInterface browserInterface) {
@@ -95,48 +165,160 @@ public abstract class DebugSession extends BaseWebSocketHandler {
 		return browserInterface;
 	}
 	
+	/**
+	 * Gets the session event loop. Handler logic and session state changes must run on this executor,
+	 * other threads queue their work instead of locking the session state.
+	 *
+	 * @return the session executor
+	 */
+	public Executor getExecutor() {
+		return executor;
+	}
+	
+	/**
+	 * Runs the task on the session event loop. Tasks of the event loop run immediately.
+	 *
+	 * @param task the task
+	 */
+	private void runInSession(Runnable task) {
+		if (executor.isExecutorThread()) {
+			task.run();
+		} else {
+			executor.execute(task);
+		}
+	}
+	
+	/**
+	 * Runs the task on the session event loop and waits until it has finished.
+	 *
+	 * @param task the task
+	 */
+	private void runInSessionAndWait(Runnable task) {
+		if (executor.isExecutorThread()) {
+			task.run();
+			return;
+		}
+		
+		FutureTask<Void> future = new FutureTask<Void>(task, null);
+		executor.execute(future);
+		try {
+			future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			e.getCause().printStackTrace();
+		}
+	}
+	
+	/**
+	 * Runs the task for a page message on the session event loop, synchronous messages are handled before the method returns.
+	 *
+	 * @param handlerMethod the handler method
+	 * @param task the task
+	 */
+	private void runPageMessage(String handlerMethod, Runnable task) {
+		if (SYNCHRONOUS_MESSAGES.contains(handlerMethod)) {
+			runInSessionAndWait(task);
+		} else {
+			runInSession(task);
+		}
+	}
+	
+	/**
+	 * Checks if a debugger frontend is connected.
+	 *
+	 * @return true, if at least one frontend is connected
+	 */
+	public boolean isConnected() {
+		return !connections.isEmpty();
+	}
+	
 	/* (non-Javadoc)
 	 * @see org.webbitserver.BaseWebSocketHandler#onOpen(org.webbitserver.WebSocketConnection)
 	 */
 	@Override
 	public void onOpen( final WebSocketConnection conn ) {
 		System.out.println( conn.httpRequest().remoteAddress() + " entered the debugger space!" );
-		connections.add(conn);
-
-		try {
-			getBrowserInterface().sendMsgToWebView(
-					"ClientConnected",
-					new JSONObject(),
-					null);
+		runInSession(new Runnable() {
 			
-		} catch (JSONException e) {
-//			Log.e(TAG, "Notify ClientConnected failed", e);
-		}		
-		
+			@Override
+			public void run() {
+				MeteredConnection metered = new MeteredConnection(conn);
+				conn.data(METERED_CONNECTION, metered);
+				connections.add(metered);
+
+				try {
+					getBrowserInterface().sendMsgToWebView(
+							"ClientConnected",
+							new JSONObject(),
+							null);
+					
+				} catch (JSONException e) {
+//					Log.e(TAG, "Notify ClientConnected failed", e);
+				}		
+			}
+		});
 	}
 
 	/* (non-Javadoc)
 	 * @see org.webbitserver.BaseWebSocketHandler#onClose(org.webbitserver.WebSocketConnection)
 	 */
 	@Override
-	public void onClose( WebSocketConnection conn) {
+	public void onClose( final WebSocketConnection conn) {
 		System.out.println( conn + " has left the debugger space!" );
-		connections.remove(conn);
+		runInSession(new Runnable() {
+			
+			@Override
+			public void run() {
+				connections.remove(conn.data(METERED_CONNECTION));
+			}
+		});
 	}
 
 	/* (non-Javadoc)
 	 * @see org.webbitserver.BaseWebSocketHandler#onMessage(org.webbitserver.WebSocketConnection, java.lang.String)
 	 */
 	@Override
-	public void onMessage( WebSocketConnection conn, String strMessage ) {
+	public void onMessage( final WebSocketConnection conn, final String strMessage ) {
+		runInSession(new Runnable() {
+			
+			@Override
+			public void run() {
+				receiveMessage((WebSocketConnection) conn.data(METERED_CONNECTION), strMessage);
+			}
+		});
+	}
+	
+	/**
+	 * Dispatch message of the debugger frontend to the method handlers.
+	 *
+	 * @param conn the websocket connection
+	 * @param strMessage the message
+	 */
+	private void receiveMessage(WebSocketConnection conn, String strMessage) {
 		try {
-			JSONObject message = new JSONObject(strMessage);
-				
-			String[] method = message.getString("method").split("[\\.]");
-			MessageHandler handler = getMessageHandler(method[0]);
+			// only the method name is read before the handler is known
+			RawJSON rawMessage = new RawJSON(strMessage);
+			String method = rawMessage.optString("method");
+			
+			MethodHandler methodHandler = method != null ? METHODS.get(method) : null;
+			if (methodHandler instanceof RawMethodHandler) {
+				((RawMethodHandler)methodHandler).onReceiveRawMessage(conn, rawMessage);
+				return;
+			}
+			
+			JSONObject message = rawMessage.toJSONObject();
+			method = message.getString("method");
+			if (methodHandler != null) {
+				methodHandler.onReceiveMessage(conn, message);
+				return;
+			}
 			
+			// not registered - let the handler reply
+			int separator = method.indexOf('.');
+			MessageHandler handler = separator > 0 ? getMessageHandler(method.substring(0, separator)) : null;
 			if (handler != null) {
-				handler.onReceiveMessage(conn, method[1], message);
+				handler.onReceiveMessage(conn, method.substring(separator + 1), message);
 						
 			} else {
 				conn.send(
@@ -150,6 +332,65 @@ public abstract class DebugSession extends BaseWebSocketHandler {
 		}
 	}
 
+	/**
+	 * Dispatch message to message handlers. The message is processed on the session event loop, 
+	 * "GlobalInitHybugger" and "Debugger.scriptParsed" are processed before the method returns.
+	 *
+	 * @param handlerMethod the handler method
+	 * @param message the JSON message
+	 * @throws JSONException some JSON exception
+	 */
+	public void sendMessage(final String handlerMethod, final JSONObject message ) throws JSONException {
+		awaitCapacity(handlerMethod);
+		runPageMessage(handlerMethod, new Runnable() {
+			
+			@Override
+			public void run() {
+				try {
+					dispatchMessage(handlerMethod, message);
+				} catch (JSONException e) {
+					e.printStackTrace();
+				}
+			}
+		});
+	}
+	
+	/**
+	 * Dispatch an already serialized message to message handlers. The message is processed on the session event loop, 
+	 * "GlobalInitHybugger" and "Debugger.scriptParsed" are processed before the method returns.
+	 *
+	 * @param handlerMethod the handler method
+	 * @param message the serialized JSON message
+	 * @throws JSONException some JSON exception
+	 */
+	public void sendRawMessage(final String handlerMethod, final RawJSON message) throws JSONException {
+		awaitCapacity(handlerMethod);
+		runPageMessage(handlerMethod, new Runnable() {
+			
+			@Override
+			public void run() {
+				try {
+					dispatchRawMessage(handlerMethod, message);
+				} catch (JSONException e) {
+					e.printStackTrace();
+				}
+			}
+		});
+	}
+	
+	/**
+	 * Lets the message handler apply flow control before a message of the app is queued.
+	 *
+	 * @param handlerMethod the handler method
+	 */
+	private void awaitCapacity(String handlerMethod) {
+		int separator = handlerMethod.indexOf('.');
+		MessageHandler handler = separator > 0 ? getMessageHandler(handlerMethod.substring(0, separator)) : null;
+		if (handler != null && !executor.isExecutorThread()) {
+			handler.awaitCapacity(handlerMethod.substring(separator + 1));
+		}
+	}
+	
 	/**
 	 * Dispatch message to message handlers.
 	 *
@@ -157,20 +398,38 @@ public abstract class DebugSession extends BaseWebSocketHandler {
 	 * @param message the JSON message
 	 * @throws JSONException some JSON exception
 	 */
-	public void sendMessage(String handlerMethod, JSONObject message ) throws JSONException {
-		String[] method = handlerMethod.split("[\\.]");
-		MessageHandler handler = getMessageHandler(method[0]);
+	private void dispatchMessage(String handlerMethod, JSONObject message ) throws JSONException {
+		int separator = handlerMethod.indexOf('.');
+		MessageHandler handler = separator > 0 ? getMessageHandler(handlerMethod.substring(0, separator)) : null;
 		if (handler != null) {
-			sendHandlerMessage(message, method[1], handler);
-		} else if (method.length == 1) {
+			sendHandlerMessage(message, handlerMethod.substring(separator + 1), handler);
+		} else if (separator < 0) {
 			for (MessageHandler allHandler : HANDLERS.values()) {
-				sendHandlerMessage(message, method[0], allHandler);
+				sendHandlerMessage(message, handlerMethod, allHandler);
 			}
 		} else {
 //			Log.e(TAG, "sendMessage no handler found: " + handlerMethod);
 		}
 	}
 	
+	/**
+	 * Dispatch an already serialized message to message handlers.
+	 *
+	 * @param handlerMethod the handler method
+	 * @param message the serialized JSON message
+	 * @throws JSONException some JSON exception
+	 */
+	private void dispatchRawMessage(String handlerMethod, RawJSON message) throws JSONException {
+		int separator = handlerMethod.indexOf('.');
+		MessageHandler handler = separator > 0 ? getMessageHandler(handlerMethod.substring(0, separator)) : null;
+		if (handler == null) {
+			// global messages and unknown handlers
+			dispatchMessage(handlerMethod, message.toJSONObject());
+		} else {
+			handler.onSendRawMessage(getEventConnection(), handlerMethod.substring(separator + 1), message);
+		}
+	}
+	
 	/**
 	 * Gets the message handler by name.
 	 *
@@ -191,13 +450,23 @@ public abstract class DebugSession extends BaseWebSocketHandler {
 	 */
 	private void sendHandlerMessage(JSONObject message, String method,
 			MessageHandler handler) throws JSONException {
-		if (connections.isEmpty()) {
-			handler.onSendMessage(null, method, message);
-		} else {
-			for (WebSocketConnection conn : connections) {
-				handler.onSendMessage(conn, method, message);
-			}
+		handler.onSendMessage(getEventConnection(), method, message);
+	}
+
+	/**
+	 * Gets the connection for events to the debugger frontends. The handlers serialize an event once,
+	 * with more than one frontend the same frame is sent to all connections.
+	 *
+	 * @return the event connection or null if no frontend is connected
+	 */
+	private WebSocketConnection getEventConnection() {
+		// the iterator works on a snapshot of the connection list
+		Iterator<WebSocketConnection> snapshot = connections.iterator();
+		if (!snapshot.hasNext()) {
+			return null;
 		}
+		WebSocketConnection conn = snapshot.next();
+		return snapshot.hasNext() ? new BroadcastConnection(conn, connections) : conn;
 	}
 
 	/**
@@ -210,7 +479,71 @@ public abstract class DebugSession extends BaseWebSocketHandler {
 	 */
 	public abstract String loadScriptResourceById(String scriptUri, boolean encode) throws IOException;
 
+	/**
+	 * Gets a script resource, the resource is loaded by {@link #loadScriptResourceById(String, boolean)} 
+	 * if it's not in the source cache.
+	 *
+	 * @param scriptUri the script URI to load
+	 * @param encode true to use base64 encoding
+	 * @return the file resource content 
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public String getScriptResourceById(String scriptUri, boolean encode) throws IOException {
+		String content = sourceCache.get(scriptUri, encode);
+		if (content == null) {
+			String version = sourceCache.getVersion(scriptUri);
+			content = loadScriptResourceById(scriptUri, encode);
+			if (content != null) {
+				sourceCache.put(scriptUri, encode, version, content);
+			}
+		}
+		return content;
+	}
+	
+	/**
+	 * Gets the debugger state store.
+	 *
+	 * @return the state store
+	 */
+	public DebuggerStateStore getStateStore() {
+		return stateStore;
+	}
+	
+	/**
+	 * Gets the script source cache.
+	 *
+	 * @return the source cache
+	 */
+	public ScriptSourceCache getSourceCache() {
+		return sourceCache;
+	}
+
 	public String getSessionId() {
 		return sessionId;
 	}
+
+	/**
+	 * Gets the runtime statistics of this session.
+	 *
+	 * @return the statistics
+	 * @throws JSONException some JSON exception
+	 */
+	public JSONObject getStatistics() throws JSONException {
+		JSONObject stats = new JSONObject();
+		stats.put("sessionId", sessionId);
+		stats.put("connections", connections.size());
+		
+		JSONArray outbound = new JSONArray();
+		for (WebSocketConnection conn : connections) {
+			outbound.put(((MeteredConnection)conn).getStatistics());
+		}
+		stats.put("outbound", outbound);
+		stats.put("sourceCache", sourceCache.getStatistics());
+		if (browserInterface != null) {
+			stats.put("pendingReplies", browserInterface.getPendingReplyCount());
+			stats.put("replyTimeouts", browserInterface.getReplyTimeoutCount());
+			stats.put("queue", browserInterface.getQueueStatistics());
+		}
+		return stats;
+	}
 }
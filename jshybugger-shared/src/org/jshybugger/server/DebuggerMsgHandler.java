@@ -16,12 +16,16 @@
 package org.jshybugger.server;
 
 import java.io.IOException;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 
+import org.jshybugger.server.BreakpointRegistry.Breakpoint;
+import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 import org.json.JSONStringer;
@@ -38,123 +42,256 @@ public class DebuggerMsgHandler extends AbstractMsgHandler {
 
 	public final static String HANDLER_NAME = "Debugger";
 
-	/** The methods available. */
-	private final HashMap<String,Boolean> METHODS_AVAILABLE = new HashMap<String, Boolean>(); 
-	
 	/** The Constant TAG. */
 	private static final String TAG = "DebuggerMsgHandler";
 	
 	/** The loaded scripts. */
 	private Map<String,Integer> loadedScripts = new HashMap<String,Integer>();
 	
-	/** The script breakpoints. */
-	private Map<String,Set<Breakpoint>> scriptBreakpoints =  new HashMap<String,Set<Breakpoint>>();
-
+	/** The breakpoints. */
+	private final BreakpointRegistry breakpoints = new BreakpointRegistry();
+	
+	/** The scripts whose breakpoints were sent to the current page. */
+	private final Set<String> syncedScripts = new HashSet<String>();
+	
+	/** The pause on exceptions state, "none", "uncaught" or "all". */
+	private String pauseOnExceptions = "none";
+	
+	/** The breakpoints active state. */
+	private boolean breakpointsActive = true;
 	
 	/**
 	 * Instantiates a new debugger msg handler.
 	 *
 	 * @param debugSession the debug server
 	 */
-	public DebuggerMsgHandler(DebugSession debugSession) {
+	public DebuggerMsgHandler(final DebugSession debugSession) {
 		super(debugSession, HANDLER_NAME);
 
-		METHODS_AVAILABLE.put("causesRecompilation", false);
-		METHODS_AVAILABLE.put("supportsNativeBreakpoints", false);
-		METHODS_AVAILABLE.put("canSetScriptSource", true);
-		METHODS_AVAILABLE.put("enable", true);
-	}
-
-	/* (non-Javadoc)
-	 * @see de.cyberflohrs.jshybugger.server.AbstractMsgHandler#onReceiveMessage(org.webbitserver.WebSocketConnection, java.lang.String, org.json.JSONObject)
-	 */
-	@Override
-	public void onReceiveMessage(final WebSocketConnection conn, String method, final JSONObject message) throws JSONException {
+		addResultMethod("causesRecompilation", false);
+		addResultMethod("supportsNativeBreakpoints", false);
+		addResultMethod("canSetScriptSource", true);
 		
-		if (METHODS_AVAILABLE.containsKey(method)) {
-			
-			JSONObject reply = new JSONObject();
-			
-			reply.put("id", message.getInt("id"));
-			reply.put("result", new JSONObject().put("result", METHODS_AVAILABLE.get(method)));
-			
-			if("enable".equals(method)) {
+		addMethodHandler("enable", new MethodHandler() {
+
+			@Override
+			public void onReceiveMessage(WebSocketConnection conn, JSONObject message) throws JSONException {
 				for (Entry<String,Integer> entry : loadedScripts.entrySet()) {
 					sendScriptParsed(conn, entry.getKey(), entry.getValue());
 				}
+				sendResultMessage(conn, message, true);
 			}
-			
-			conn.send(reply.toString());
-			
-		} else if ("getScriptSource".equals(method)) {
-			
-			JSONObject reply = new JSONObject();
-			
-			reply.put("id", message.getInt("id"));
-			try {
-				reply.put("result", new JSONObject().put("scriptSource", 
-						debugSession.loadScriptResourceById(message.getJSONObject("params").getString("scriptId"), false) ));
-			} catch (IOException e) {
-				e.printStackTrace();
+		});
+		
+		addMethodHandler("getScriptSource", new MethodHandler() {
+
+			@Override
+			public void onReceiveMessage(WebSocketConnection conn, JSONObject message) throws JSONException {
+				getScriptSource(conn, message);
 			}
-			
-			conn.send(reply.toString());
+		});
 
-		} else if ("setScriptSource".equals(method)) {
+		addMethodHandler("setScriptSource", new MethodHandler() {
 
-			setScriptSource(conn, message);
-			
-		} else if ("continueToLocation".equals(method)) {
-			
-			JSONObject location = message.getJSONObject("params").getJSONObject("location");
-			continueToLocation(conn, message.getInt("id"), location.getString("scriptId"), location.getInt("lineNumber"));
+			@Override
+			public void onReceiveMessage(WebSocketConnection conn, JSONObject message) throws JSONException {
+				// the cached source is outdated even if the change fails half way
+				debugSession.getSourceCache().invalidate(message.getJSONObject("params").getString("scriptId"));
+				setScriptSource(conn, message);
+			}
+		});
 
-		} else if ("setBreakpointByUrl".equals(method)) {
-			
-			JSONObject params = message.getJSONObject("params");
-			if (params.has("url")) {
-				setBreakpointByUrl(conn, message.getInt("id"), params.getString("url"), params.getInt("lineNumber"), params.getString("condition"), false);
+		addMethodHandler("setScriptInstrumentation", new MethodHandler() {
+
+			@Override
+			public void onReceiveMessage(WebSocketConnection conn, JSONObject message) throws JSONException {
+				setScriptInstrumentation(conn, message);
 			}
-			else if (params.has("urlRegex")) {
-				System.err.println(params);
+		});
+
+		addMethodHandler("continueToLocation", new MethodHandler() {
+
+			@Override
+			public void onReceiveMessage(WebSocketConnection conn, JSONObject message) throws JSONException {
+				JSONObject location = message.getJSONObject("params").getJSONObject("location");
+				continueToLocation(conn, message.getInt("id"), location.getString("scriptId"), location.getInt("lineNumber"));
 			}
-			
-		} else if ("setBreakpoint".equals(method)) {
+		});
 
-			JSONObject params = message.getJSONObject("params");
-			setBreakpointByUrl(conn, message.getInt("id"), params.getJSONObject("location").getString("scriptId"), params.getJSONObject("location").getInt("lineNumber"), params.getString("condition"), true);
-			
-		} else if ("removeBreakpoint".equals(method)) {
-			
-			removeBreakpoint(conn, message);
-			
-		} else if (method.equals("setPauseOnExceptions")) {
-			
-			setPauseOnExceptions(conn, message);
-			
-		} else if (method.equals("evaluateOnCallFrame")) {
-			
-			evaluateOnCallFrame(conn, message);
-			
-		} else if (method.equals("resume")) {
-			sendDebuggerMsgToWebView(conn, "breakpoint-resume", message);
-			
-		} else if (method.equals("stepOver")) {
-			sendDebuggerMsgToWebView(conn, "breakpoint-step-over", message);
-			
-		} else if (method.equals("stepOut")) {
-			sendDebuggerMsgToWebView(conn, "breakpoint-step-out", message);
-			
-		} else if (method.equals("stepInto")) {
-			sendDebuggerMsgToWebView(conn, "breakpoint-step-into", message);
-			
-		} else if (method.equals("setBreakpointsActive")) {
-			
-			setBreakpointsActive(conn, message);
-			
-		} else {
-			super.onReceiveMessage(conn, method, message);
+		addMethodHandler("setBreakpointByUrl", new MethodHandler() {
+
+			@Override
+			public void onReceiveMessage(WebSocketConnection conn, JSONObject message) throws JSONException {
+				JSONObject params = message.getJSONObject("params");
+				setBreakpointByUrl(conn, message.getInt("id"), params.optString("url", null), params.optString("urlRegex", null), 
+						params.getInt("lineNumber"), params.optString("condition", null), false);
+			}
+		});
+
+		addMethodHandler("setBreakpoint", new MethodHandler() {
+
+			@Override
+			public void onReceiveMessage(WebSocketConnection conn, JSONObject message) throws JSONException {
+				JSONObject params = message.getJSONObject("params");
+				setBreakpointByUrl(conn, message.getInt("id"), params.getJSONObject("location").getString("scriptId"), null, 
+						params.getJSONObject("location").getInt("lineNumber"), params.optString("condition", null), true);
+			}
+		});
+
+		addMethodHandler("removeBreakpoint", new MethodHandler() {
+
+			@Override
+			public void onReceiveMessage(WebSocketConnection conn, JSONObject message) throws JSONException {
+				removeBreakpoint(conn, message);
+			}
+		});
+
+		addMethodHandler("setPauseOnExceptions", new MethodHandler() {
+
+			@Override
+			public void onReceiveMessage(WebSocketConnection conn, JSONObject message) throws JSONException {
+				setPauseOnExceptions(conn, message);
+			}
+		});
+
+		addMethodHandler("evaluateOnCallFrame", new RawMethodHandler() {
+
+			@Override
+			public void onReceiveRawMessage(WebSocketConnection conn, RawJSON message) throws JSONException {
+				evaluateOnCallFrame(conn, message);
+			}
+		});
+
+		addMethodHandler("setBreakpointsActive", new MethodHandler() {
+
+			@Override
+			public void onReceiveMessage(WebSocketConnection conn, JSONObject message) throws JSONException {
+				setBreakpointsActive(conn, message);
+			}
+		});
+		
+		addWebViewCommand("resume", "breakpoint-resume");
+		addWebViewCommand("stepOver", "breakpoint-step-over");
+		addWebViewCommand("stepOut", "breakpoint-step-out");
+		addWebViewCommand("stepInto", "breakpoint-step-into");
+		
+		restoreState();
+	}
+	
+	/**
+	 * Restores the breakpoints and debugger settings of the last session from the state store.
+	 */
+	private void restoreState() {
+		JSONObject state = debugSession.getStateStore().load();
+		if (state == null) {
+			return;
+		}
+		
+		pauseOnExceptions = state.optString("pauseOnExceptions", pauseOnExceptions);
+		breakpointsActive = state.optBoolean("breakpointsActive", breakpointsActive);
+		
+		JSONArray storedBreakpoints = state.optJSONArray("breakpoints");
+		for (int i = 0; storedBreakpoints != null && i < storedBreakpoints.length(); i++) {
+			JSONObject breakpoint = storedBreakpoints.optJSONObject(i);
+			if (breakpoint == null || (breakpoint.isNull("url") && breakpoint.isNull("urlRegex"))) {
+				continue;
+			}
+			try {
+				breakpoints.add(breakpoint.optString("url", null), breakpoint.optString("urlRegex", null), 
+						breakpoint.getInt("lineNumber"), breakpoint.optString("condition", null));
+			} catch (JSONException e) {
+				// skip invalid entries
+			} catch (IllegalArgumentException e) {
+				// skip invalid URL regex
+			}
+		}
+		
+		// the scripts matched by URL regex breakpoints, they are armed on page load like the URL breakpoints 
+		JSONArray scripts = state.optJSONArray("scripts");
+		for (int i = 0; scripts != null && i < scripts.length(); i++) {
+			breakpoints.addScript(scripts.optString(i));
+		}
+	}
+	
+	/**
+	 * Stores the breakpoints and debugger settings, the state is written in the background.
+	 *
+	 * @throws JSONException some JSON exception
+	 */
+	private void saveState() throws JSONException {
+		JSONArray storedBreakpoints = new JSONArray();
+		for (Breakpoint breakpoint : breakpoints.getBreakpoints()) {
+			storedBreakpoints.put(new JSONObject()
+				.put("url", breakpoint.getUrl())
+				.put("urlRegex", breakpoint.getUrlRegex())
+				.put("lineNumber", breakpoint.getLine())
+				.put("condition", breakpoint.getCondition()));
+		}
+		
+		debugSession.getStateStore().save(new JSONObject()
+			.put("pauseOnExceptions", pauseOnExceptions)
+			.put("breakpointsActive", breakpointsActive)
+			.put("breakpoints", storedBreakpoints)
+			.put("scripts", new JSONArray(breakpoints.getScriptsWithBreakpoints())));
+	}
+	
+	/**
+	 * Sends the debugger settings and the breakpoints of all known scripts to a newly loaded page, 
+	 * so that breakpoints are hit even if the debugger frontend is not connected yet.
+	 *
+	 * @throws JSONException some JSON exception
+	 */
+	private void armPage() throws JSONException {
+		syncedScripts.clear();
+		
+		if (!"none".equals(pauseOnExceptions)) {
+			debugSession.getBrowserInterface().sendMsgToWebView("setPauseOnExceptions",
+					new JSONObject().put("params", new JSONObject().put("state", pauseOnExceptions)), null);
+		}
+		if (!breakpointsActive) {
+			debugSession.getBrowserInterface().sendMsgToWebView("setBreakpointsActive",
+					new JSONObject().put("params", new JSONObject().put("active", false)), null);
+		}
+		for (String url : breakpoints.getScriptsWithBreakpoints()) {
+			syncBreakpoints(url, null);
+		}
+	}
+
+	/**
+	 * Registers a protocol method which is forwarded as command to the WebView.
+	 *
+	 * @param method the method name i.e. resume
+	 * @param command the WebView command i.e. breakpoint-resume
+	 */
+	private void addWebViewCommand(String method, final String command) {
+		addMethodHandler(method, new MethodHandler() {
+
+			@Override
+			public void onReceiveMessage(WebSocketConnection conn, JSONObject message) throws JSONException {
+				sendDebuggerMsgToWebView(conn, command, message);
+			}
+		});
+	}
+
+	/**
+	 * Process "Debugger.getScriptSource" protocol messages.
+	 *
+	 * @param conn the websocket connection
+	 * @param message the JSON message
+	 * @throws JSONException some JSON exception
+	 */
+	private void getScriptSource(WebSocketConnection conn, JSONObject message) throws JSONException {
+		JSONObject reply = new JSONObject();
+		
+		reply.put("id", message.getInt("id"));
+		try {
+			reply.put("result", new JSONObject().put("scriptSource", 
+					debugSession.getScriptResourceById(message.getJSONObject("params").getString("scriptId"), false) ));
+		} catch (IOException e) {
+			e.printStackTrace();
 		}
+		
+		conn.send(reply.toString());
 	}
 	
 	/**
@@ -170,6 +307,27 @@ public class DebuggerMsgHandler extends AbstractMsgHandler {
 		// TODO should this be an abstract method
 	}	
 
+	/**
+	 * Process "Debugger.setScriptInstrumentation" messages (jsHybugger extension).
+	 * Overrides the automatic instrumentation level for a script, params: scriptId, level ("full", "stackOnly", "none" or "auto").
+	 * The new level is used the next time the script is loaded.
+	 *
+	 * @param conn the websocket connection
+	 * @param message the JSON message
+	 * @throws JSONException some JSON exception
+	 */
+	protected void setScriptInstrumentation(final WebSocketConnection conn,
+			final JSONObject message)  throws JSONException {
+
+		conn.send(new JSONStringer().object()
+				.key("id").value(message.getInt("id"))
+				.key("error").object()
+					.key("code").value(-32000)
+					.key("message").value("setScriptInstrumentation not supported")
+					.endObject()
+				.endObject().toString());
+	}
+
 	/**
 	 * Process "Debugger.setPauseOnExceptions" protocol messages.
 	 * Forwards the message to the WebView and returns the result to the debugger frontend. 
@@ -181,10 +339,13 @@ public class DebuggerMsgHandler extends AbstractMsgHandler {
 	private void setPauseOnExceptions(final WebSocketConnection conn,
 			final JSONObject message)  throws JSONException {
 		
+		pauseOnExceptions = message.getJSONObject("params").getString("state");
+		saveState();
+		
 		debugSession.getBrowserInterface().sendMsgToWebView(
 				"setPauseOnExceptions",
 				new JSONObject().put("params", message.getJSONObject("params")),
-				new ReplyReceiver() {
+				new ProtocolReplyReceiver(conn, message) {
 
 			@Override
 			public void onReply(JSONObject data) throws JSONException {
@@ -205,10 +366,13 @@ public class DebuggerMsgHandler extends AbstractMsgHandler {
 	private void setBreakpointsActive(final WebSocketConnection conn,
 			final JSONObject message) throws JSONException {
 		
+		breakpointsActive = message.getJSONObject("params").getBoolean("active");
+		saveState();
+		
 		debugSession.getBrowserInterface().sendMsgToWebView(
 				"setBreakpointsActive",
 				new JSONObject().put("params", message.getJSONObject("params")),
-				new ReplyReceiver() {
+				new ProtocolReplyReceiver(conn, message) {
 
 			@Override
 			public void onReply(JSONObject data) throws JSONException {
@@ -231,7 +395,7 @@ public class DebuggerMsgHandler extends AbstractMsgHandler {
 				"continue-to",
 				new JSONObject().put("url", url).put(
 						"lineNumber", lineNumber),
-				new ReplyReceiver() {
+				new ProtocolReplyReceiver(conn, id) {
 
 			@Override
 			public void onReply(JSONObject data) throws JSONException {
@@ -249,7 +413,7 @@ public class DebuggerMsgHandler extends AbstractMsgHandler {
 	private void sendDebuggerMsgToWebView(final WebSocketConnection conn,
 			final String command, final JSONObject message) throws JSONException {
 		
-		debugSession.getBrowserInterface().sendMsgToWebView(command, null, new ReplyReceiver() {
+		debugSession.getBrowserInterface().sendMsgToWebView(command, null, new ProtocolReplyReceiver(conn, message) {
 			
 			@Override
 			public void onReply(JSONObject data) throws JSONException {
@@ -266,26 +430,22 @@ public class DebuggerMsgHandler extends AbstractMsgHandler {
 	 * Forwards the message to the WebView and returns the result to the debugger frontend. 
 	 *
 	 * @param conn the websocket connection
-	 * @param message the JSON message
+	 * @param message the serialized JSON message
 	 * @throws JSONException some JSON exception
 	 */
-	private void evaluateOnCallFrame(final WebSocketConnection conn, final JSONObject message) throws JSONException {
-		JSONObject params = message.getJSONObject("params");
+	private void evaluateOnCallFrame(final WebSocketConnection conn, final RawJSON message) throws JSONException {
 		
-		debugSession.getBrowserInterface().sendMsgToWebView(
-				"evaluateOnCallFrame",
-				new JSONObject().put("params", params),
-				new ReplyReceiver() {
+		sendParamsToWebView("evaluateOnCallFrame", message, new ProtocolReplyReceiver(conn, message) {
 
 			@Override
 			public void onReply(JSONObject data) throws JSONException {
-				
-				conn.send(new JSONStringer().object()
-						.key("id").value(message.getInt("id"))
-						.key("result").object()
-							.key("result").value(data)
-						.endObject().endObject().toString());
-				}
+				onRawReply(new RawJSON(data.toString()));
+			}
+			
+			@Override
+			public void onRawReply(RawJSON data) throws JSONException {
+				sendResult(new RawJSON("{\"result\":" + data.toJSONString() + "}"));
+			}
 		});		
 	}
 	
@@ -299,10 +459,13 @@ public class DebuggerMsgHandler extends AbstractMsgHandler {
 			sendPaused(conn, message);
 
 		} else if (method.equals("scriptParsed")) {
+			debugSession.getSourceCache().scriptParsed(message.getString("url"), message.isNull("hash") ? null : message.getString("hash"));
 			sendScriptParsed(conn, message.getString("url"), message.getInt("numLines"));
 			
 		} else if (method.equals("GlobalInitHybugger")) {
 			loadedScripts.clear();
+			debugSession.getSourceCache().pageLoaded();
+			armPage();
 			sendGlobalObjectCleared(conn);
 			
 		} else {
@@ -310,6 +473,19 @@ public class DebuggerMsgHandler extends AbstractMsgHandler {
 		}
 	}
 	
+	/* (non-Javadoc)
+	 * @see org.jshybugger.server.AbstractMsgHandler#onSendRawMessage(org.webbitserver.WebSocketConnection, java.lang.String, org.jshybugger.server.RawJSON)
+	 */
+	@Override
+	public void onSendRawMessage(WebSocketConnection conn, String method, RawJSON message) throws JSONException {
+		if ("paused".equals(method)) {
+			// the call frames are the biggest message, pass them through
+			sendRawEvent(conn, "Debugger.paused", message);
+		} else {
+			super.onSendRawMessage(conn, method, message);
+		}
+	}
+	
 	/**
 	 * Send global object cleared.
 	 *
@@ -340,7 +516,7 @@ public class DebuggerMsgHandler extends AbstractMsgHandler {
 					.key("params").object()
 						.key("callFrames").value(message.getJSONArray("callFrames"))
 						.key("reason").value(message.getString("reason"))
-						.key("data").value(message.getJSONObject("auxData"))
+						.key("data").value(message.opt("data"))
 						.endObject()
 					.endObject()
 				.toString());
@@ -349,7 +525,7 @@ public class DebuggerMsgHandler extends AbstractMsgHandler {
 	
 	/**
 	 * Process "Debugger.removeBreakpoint" protocol messages.
-	 * Forwards the message to the WebView and returns the result to the debugger frontend. 
+	 * Sends the remaining breakpoints of the affected scripts to the WebView and returns the result to the debugger frontend. 
 	 *
 	 * @param conn the websocket connection
 	 * @param message the JSON message
@@ -357,62 +533,80 @@ public class DebuggerMsgHandler extends AbstractMsgHandler {
 	 */
 	private void removeBreakpoint(final WebSocketConnection conn, final JSONObject message) throws JSONException {
 		
-		final JSONObject params = message.getJSONObject("params");
-		Breakpoint breakpoint = Breakpoint.valueOf(params.getString("breakpointId"));
+		Breakpoint breakpoint = breakpoints.get(message.getJSONObject("params").getString("breakpointId"));
 
 //		Log.d(TAG, "removeBreakpoint: " + breakpoint);
 		
-		Set<Breakpoint> breakpoints = scriptBreakpoints.get(breakpoint.file);
-		if (breakpoints != null) {
-			breakpoints.remove(breakpoint);
+		if (breakpoint == null) {
+			sendAckMessage(conn, message);
+			return;
 		}
 		
-		debugSession.getBrowserInterface().sendMsgToWebView(
-				"breakpoint-remove",
-				new JSONObject().put("breakpointId", params.getString("breakpointId")),
-				new ReplyReceiver() {
-
-			@Override
-			public void onReply(JSONObject data) throws JSONException {
-				sendAckMessage(conn, message);
-			}
-		});
+		List<String> urls = breakpoints.getScripts(breakpoint);
+		breakpoints.remove(breakpoint);
+		saveState();
+		
+		if (urls.isEmpty()) {
+			sendAckMessage(conn, message);
+			return;
+		}
+		
+		for (int i = 0; i < urls.size(); i++) {
+			syncBreakpoints(urls.get(i), i < urls.size() - 1 ? null : new ProtocolReplyReceiver(conn, message) {
+				
+				@Override
+				public void onReply(JSONObject data) throws JSONException {
+					sendAckMessage(conn, message);
+				}
+			});
+		}
 	}
 	
 	/**
 	 * Process "Debugger.setBreakpointByUrl" protocol messages.
-	 * Forwards the message to the WebView and returns the result to the debugger frontend. 
+	 * Sends the breakpoints of the affected scripts to the WebView and returns the result to the debugger frontend. 
 	 *
 	 * @param conn the websocket connection
-	 * @param message the JSON message
+	 * @param id the message id
+	 * @param url the script URL or null
+	 * @param urlRegex the script URL regex, used if url is null
+	 * @param lineNumber the line number
+	 * @param condition the breakpoint condition or null
+	 * @param actualLocation true to reply the actual location instead of the locations
 	 * @throws JSONException some JSON exception
 	 */
-	private void setBreakpointByUrl(final WebSocketConnection conn, final int id, final String url, final int lineNumber, final String condition, final boolean actualLocation) throws JSONException {
+	private void setBreakpointByUrl(final WebSocketConnection conn, final int id, final String url, final String urlRegex, final int lineNumber, final String condition, final boolean actualLocation) throws JSONException {
 				
-		final Breakpoint breakpoint = new Breakpoint(url, lineNumber, condition);
+		final Breakpoint breakpoint;
+		try {
+			if (url == null && urlRegex == null) {
+				throw new IllegalArgumentException("either url or urlRegex must be specified");
+			}
+			breakpoint = breakpoints.add(url, urlRegex, lineNumber, condition);
+			
+		} catch (IllegalArgumentException e) {
+			conn.send(new JSONStringer().object()
+					.key("id").value(id)
+					.key("error").object()
+						.key("code").value(-32000)
+						.key("message").value(e.getMessage())
+						.endObject()
+					.endObject().toString());
+			return;
+		}
 //		Log.d(TAG, "setBreakpointByUrl: " + breakpoint);
+		saveState();
 
-		debugSession.getBrowserInterface().sendMsgToWebView(
-				"breakpoint-set",
-				new JSONObject().put("url", url).put(
-						"lineNumber", lineNumber).put("condition", condition),
-				new ReplyReceiver() {
+		final List<String> urls = breakpoints.getScripts(breakpoint);
+		ProtocolReplyReceiver receiver = new ProtocolReplyReceiver(conn, id) {
 
 			@Override
 			public void onReply(JSONObject data) throws JSONException {
 				
-				// add breakpoint to internal list of breakpoints
-				Set<Breakpoint> breakpoints = scriptBreakpoints.get(url);
-				if (breakpoints == null) {
-					breakpoints = new HashSet<Breakpoint>();
-					scriptBreakpoints.put(url, breakpoints);
-				}
-				breakpoints.add(breakpoint);
-				
 				JSONWriter res = new JSONStringer().object()
 						.key("id").value(id)
 						.key("result").object()
-							.key("breakpointId").value(data.getString("breakpointId"));
+							.key("breakpointId").value(breakpoint.getBreakpointId());
 				
 				if (actualLocation) {
 					res.key("actualLocation").object()
@@ -421,24 +615,62 @@ public class DebuggerMsgHandler extends AbstractMsgHandler {
 						.key("columnNumber").value(0)
 					.endObject();
 				} else {
-					res.key("locations").array()
-						.object()
-							.key("scriptId").value(url)
+					res.key("locations").array();
+					for (String scriptUrl : urls) {
+						res.object()
+							.key("scriptId").value(scriptUrl)
 							.key("lineNumber").value(lineNumber)
 							.key("columnNumber").value(0)
-						.endObject()
-					.endArray();
+						.endObject();
+					}
+					res.endArray();
 				}
 				
 				conn.send(res.endObject()
 					.endObject().toString());
 			}
-		});
+		};
+		
+		if (urls.isEmpty()) {
+			// a regex which matches no known script yet, it's resolved when a matching script is parsed
+			receiver.onReply(null);
+			return;
+		}
+		
+		for (int i = 0; i < urls.size(); i++) {
+			syncBreakpoints(urls.get(i), i < urls.size() - 1 ? null : receiver);
+		}
+	}
+	
+	/**
+	 * Sends all breakpoints of a script to the webview with one "breakpoints-sync" command, 
+	 * the webview replaces the breakpoints of the script with the complete set. 
+	 *
+	 * @param url the script URL
+	 * @param receiver an optional callback receiver, called when the webview has applied the breakpoints
+	 * @throws JSONException some JSON exception
+	 */
+	private void syncBreakpoints(String url, ReplyReceiver receiver) throws JSONException {
+		syncedScripts.add(url);
+		
+		JSONWriter sync = new JSONStringer().object()
+				.key("url").value(url)
+				.key("breakpoints").array();
+		for (Breakpoint breakpoint : breakpoints.getBreakpoints(url)) {
+			sync.object()
+				.key("lineNumber").value(breakpoint.line)
+				.key("condition").value(breakpoint.condition)
+			.endObject();
+		}
+		debugSession.getBrowserInterface().sendRawMsgToWebView(
+				"breakpoints-sync",
+				new RawJSON(sync.endArray().endObject().toString()), receiver);
 	}
 	
 	/**
 	 * Process "Debugger.scriptParsed" protocol messages.
-	 * Forwards the message to the debugger frontend and notifies the webview about all set breakpoints for this script. 
+	 * Forwards the message to the debugger frontend and sends all set breakpoints for this script to the webview 
+	 * with one "breakpoints-sync" command. 
 	 *
 	 * @param conn the websocket connection
 	 * @param message the JSON message
@@ -462,16 +694,16 @@ public class DebuggerMsgHandler extends AbstractMsgHandler {
 				.endObject().toString());
 		}
 		
-		
-		Set<Breakpoint> breakpoints = scriptBreakpoints.get(url);
-		if (breakpoints != null) {
+		// the URL regex breakpoints are matched once, when the script becomes known 
+		Collection<Breakpoint> scriptBreakpoints = breakpoints.getBreakpoints(url);
+		if (!scriptBreakpoints.isEmpty()) {
+			// the breakpoints are set even without debugger frontend, i.e. for breakpoints restored on app start
+			if (!syncedScripts.contains(url)) {
+				syncBreakpoints(url, null);
+			}
+			
 			if (conn != null) {
-				for (Breakpoint breakpoint : breakpoints) {
-					debugSession.getBrowserInterface().sendMsgToWebView(
-							"breakpoint-set",
-							new JSONObject().put("url", url).put("lineNumber",
-									breakpoint.line).put("condition", breakpoint.condition), null);
-					
+				for (Breakpoint breakpoint : scriptBreakpoints) {
 //					Log.d(TAG, "breakpointResolved: " + breakpoint);
 
 					conn.send(new JSONStringer().object()
@@ -490,60 +722,4 @@ public class DebuggerMsgHandler extends AbstractMsgHandler {
 		}
 	
 	}
-	
-	static class Breakpoint {
-		final String file;
-		final int line;
-		final String condition;
-		
-		public Breakpoint(String file, int line, String condition) {
-			super();
-			this.file = file;
-			this.line = line;
-			this.condition = condition;
-		}
-		
-		public String getBreakpointId() {
-			return file + ":" + line;
-		}
-		
-		public static Breakpoint valueOf(String breakpointId) {
-			int idx = breakpointId.lastIndexOf(":");
-			return new Breakpoint(breakpointId.substring(0, idx), Integer.valueOf(breakpointId.substring(idx+1)), null);
-		}
-
-		@Override
-		public int hashCode() {
-			final int prime = 31;
-			int result = 1;
-			result = prime * result + ((file == null) ? 0 : file.hashCode());
-			result = prime * result + line;
-			return result;
-		}
-
-		@Override
-		public boolean equals(Object obj) {
-			if (this == obj)
-				return true;
-			if (obj == null)
-				return false;
-			if (getClass() != obj.getClass())
-				return false;
-			Breakpoint other = (Breakpoint) obj;
-			if (file == null) {
-				if (other.file != null)
-					return false;
-			} else if (!file.equals(other.file))
-				return false;
-			if (line != other.line)
-				return false;
-			return true;
-		}
-
-		@Override
-		public String toString() {
-			return "Breakpoint [file=" + file + ", line=" + line
-					+ ", condition=" + condition + "]";
-		}
-	}
 }
@@ -0,0 +1,162 @@
+/*
+ * Copyright 2013 Wolfgang Flohr-Hochbichler (developer@jshybugger.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jshybugger.server;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * The DebuggerStateStore keeps the debugger state, i.e. the breakpoints, in a file so that it survives 
+ * app restarts. The state is written in the background, changes within the write delay are written once.
+ * The file is replaced atomically by a rename, a crash while writing keeps the previous state.
+ */
+public class DebuggerStateStore {
+
+	/** The delay in milliseconds between a change and the write, all changes within the delay are written once. */
+	public static final long WRITE_DELAY = 500;
+	
+	/** The shared writer thread for all stores. */
+	private static final ScheduledExecutorService WRITER = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+		
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "jsHybuggerStateWriter");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+	
+	/** The state file, null if the state is not stored. */
+	private final File file;
+	
+	/** The serialized state waiting to be written. */
+	private String pendingState;
+	
+	/** The write task. */
+	private final Runnable writeTask = new Runnable() {
+		
+		@Override
+		public void run() {
+			String state;
+			synchronized (DebuggerStateStore.this) {
+				state = pendingState;
+				pendingState = null;
+			}
+			if (state != null) {
+				write(state);
+			}
+		}
+	};
+	
+	/**
+	 * Instantiates a new debugger state store.
+	 *
+	 * @param file the state file, null if the state should not be stored
+	 */
+	public DebuggerStateStore(File file) {
+		this.file = file;
+	}
+	
+	/**
+	 * Loads the stored state.
+	 *
+	 * @return the state or null if no state is stored
+	 */
+	public synchronized JSONObject load() {
+		if (pendingState != null) {
+			try {
+				return new JSONObject(pendingState);
+			} catch (JSONException e) {
+				return null;
+			}
+		}
+		if (file == null || !file.exists()) {
+			return null;
+		}
+		
+		try {
+			Reader reader = new InputStreamReader(new FileInputStream(file), "UTF-8");
+			try {
+				StringBuilder content = new StringBuilder();
+				char[] buffer = new char[8192];
+				int len;
+				while ((len = reader.read(buffer)) > 0) {
+					content.append(buffer, 0, len);
+				}
+				return new JSONObject(content.toString());
+			} finally {
+				reader.close();
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		} catch (JSONException e) {
+			// a corrupt state is ignored, it's replaced by the next change
+			e.printStackTrace();
+		}
+		return null;
+	}
+	
+	/**
+	 * Stores the state. The state is written in the background after the write delay.
+	 *
+	 * @param state the state
+	 */
+	public synchronized void save(JSONObject state) {
+		if (file == null) {
+			return;
+		}
+		if (pendingState == null) {
+			WRITER.schedule(writeTask, WRITE_DELAY, TimeUnit.MILLISECONDS);
+		}
+		pendingState = state.toString();
+	}
+	
+	/**
+	 * Writes the state to a temporary file and replaces the state file.
+	 *
+	 * @param state the serialized state
+	 */
+	private void write(String state) {
+		File tmpFile = new File(file.getPath() + ".tmp");
+		try {
+			Writer writer = new OutputStreamWriter(new FileOutputStream(tmpFile), "UTF-8");
+			try {
+				writer.write(state);
+			} finally {
+				writer.close();
+			}
+			// rename replaces the existing file on Android and Linux
+			if (!tmpFile.renameTo(file)) {
+				throw new IOException("renaming " + tmpFile + " failed");
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+}
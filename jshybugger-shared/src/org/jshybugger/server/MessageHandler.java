@@ -15,6 +15,8 @@
  */
 package org.jshybugger.server;
 
+import java.util.Map;
+
 import org.json.JSONException;
 import org.json.JSONObject;
 import org.webbitserver.WebSocketConnection;
@@ -33,6 +35,13 @@ public interface MessageHandler {
 	 */
 	public String getObjectName();
 	
+	/**
+	 * Gets the protocol methods served by this handler.
+	 *
+	 * @return the method handlers by method name i.e. pageReload
+	 */
+	public Map<String,MethodHandler> getMethodHandlers();
+	
 	/**
 	 * Called on receive message from debug frontend.
 	 *
@@ -52,4 +61,23 @@ public interface MessageHandler {
 	 * @throws JSONException the jSON exception
 	 */
 	public void onSendMessage(WebSocketConnection conn, String method, JSONObject message) throws JSONException;
+
+	/**
+	 * Called on the app thread before a message of the app is queued for the session event loop.
+	 * Handlers which buffer messages can block the app here while the buffer is full.
+	 *
+	 * @param method the handler method name i.e. messageAdded
+	 */
+	public void awaitCapacity(String method);
+
+	/**
+	 * Called to send an already serialized message from the app to debug frontend.
+	 * Handlers which forward the message unchanged should pass it through without parsing.
+	 *
+	 * @param conn he websocket connection
+	 * @param method the handler method name i.e. paused
+	 * @param message the serialized JSON message
+	 * @throws JSONException the jSON exception
+	 */
+	public void onSendRawMessage(WebSocketConnection conn, String method, RawJSON message) throws JSONException;
 }
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2013 Wolfgang Flohr-Hochbichler (developer@jshybugger.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jshybugger.server;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The MessagePriority defines the delivery order of messages for the webview.
+ * Messages of a higher priority class are delivered first, within a class messages are delivered in FIFO order.
+ */
+public enum MessagePriority {
+
+	/** Execution control - resume, step, continue to location. */
+	EXECUTION("execution", false),
+	
+	/** Breakpoint management and one-shot page configuration, which has no reply the debugger frontend waits for. */
+	BREAKPOINTS("breakpoints", false),
+	
+	/** Inspection of the paused page - evaluate, getProperties ... */
+	INSPECTION("inspection", true),
+	
+	/** Bulk data - resources, storage, database content. */
+	BULK("bulk", true);
+	
+	/** The command priorities, commands not listed are INSPECTION messages. */
+	private static final Map<String,MessagePriority> COMMANDS = new HashMap<String,MessagePriority>();
+	
+	static {
+		COMMANDS.put("breakpoint-resume", EXECUTION);
+		COMMANDS.put("breakpoint-step-over", EXECUTION);
+		COMMANDS.put("breakpoint-step-into", EXECUTION);
+		COMMANDS.put("breakpoint-step-out", EXECUTION);
+		COMMANDS.put("continue-to", EXECUTION);
+		COMMANDS.put("page-reload", EXECUTION);
+		
+		COMMANDS.put("breakpoints-sync", BREAKPOINTS);
+		COMMANDS.put("setBreakpointsActive", BREAKPOINTS);
+		COMMANDS.put("setPauseOnExceptions", BREAKPOINTS);
+		// a dropped message would leave the page unconfigured without an error for the debugger frontend
+		COMMANDS.put("storage-limits", BREAKPOINTS);
+		COMMANDS.put("Database.enable", BREAKPOINTS);
+		COMMANDS.put("ClientConnected", BREAKPOINTS);
+		
+		COMMANDS.put("getResourceContent", BULK);
+		COMMANDS.put("getResourceTree", BULK);
+		COMMANDS.put("getDOMStorageItems", BULK);
+		COMMANDS.put("getDatabaseTableNames", BULK);
+		COMMANDS.put("executeSQL", BULK);
+		COMMANDS.put("requestChildNodes", BULK);
+	}
+	
+	/** The name used in statistics. */
+	private final String statisticsName;
+	
+	/** True if messages of this priority may be dropped if the message queue is full. */
+	private final boolean droppable;
+	
+	/**
+	 * Instantiates a new message priority.
+	 *
+	 * @param statisticsName the name used in statistics
+	 * @param droppable true if messages of this priority may be dropped
+	 */
+	private MessagePriority(String statisticsName, boolean droppable) {
+		this.statisticsName = statisticsName;
+		this.droppable = droppable;
+	}
+	
+	/**
+	 * Gets the name used in statistics.
+	 *
+	 * @return the statistics name
+	 */
+	public String getStatisticsName() {
+		return statisticsName;
+	}
+	
+	/**
+	 * Checks if messages of this priority may be dropped if the message queue is full. 
+	 * A lost resume or breakpoint change leaves page and debugger frontend out of sync.
+	 *
+	 * @return true, if droppable
+	 */
+	public boolean isDroppable() {
+		return droppable;
+	}
+	
+	/**
+	 * Gets the priority of a webview command.
+	 *
+	 * @param command the command i.e. "breakpoint-resume"
+	 * @return the message priority
+	 */
+	public static MessagePriority forCommand(String command) {
+		MessagePriority priority = COMMANDS.get(command);
+		return priority != null ? priority : INSPECTION;
+	}
+}
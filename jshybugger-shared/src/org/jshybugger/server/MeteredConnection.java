@@ -0,0 +1,100 @@
+/*
+ * Copyright 2013 Wolfgang Flohr-Hochbichler (developer@jshybugger.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jshybugger.server;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.webbitserver.WebSocketConnection;
+import org.webbitserver.wrapper.WebSocketConnectionWrapper;
+
+/**
+ * The MeteredConnection counts the frames sent to a debugger frontend connection. Frames are written 
+ * immediately, a burst is the sequence of frames sent until the session event loop becomes idle 
+ * (i.e. "Debugger.scriptParsed" for all scripts of a page).
+ */
+public class MeteredConnection extends WebSocketConnectionWrapper {
+
+	/** The number of frames of the current burst. */
+	private int burstFrames;
+	
+	/** The number of characters of the current burst. */
+	private long burstSize;
+	
+	/** The number of completed bursts. */
+	private long bursts;
+	
+	/** The number of sent frames. */
+	private long sentFrames;
+	
+	/** The number of sent characters. */
+	private long sentSize;
+	
+	/** The max number of frames of one burst. */
+	private int maxBurstFrames;
+
+	/**
+	 * Instantiates a new metered connection.
+	 *
+	 * @param conn the websocket connection
+	 */
+	public MeteredConnection(WebSocketConnection conn) {
+		super(conn);
+	}
+
+	/* (non-Javadoc)
+	 * @see org.webbitserver.wrapper.WebSocketConnectionWrapper#send(java.lang.String)
+	 */
+	@Override
+	public WebSocketConnectionWrapper send(String message) {
+		synchronized (this) {
+			burstFrames++;
+			burstSize += message.length();
+			maxBurstFrames = Math.max(maxBurstFrames, burstFrames);
+		}
+		return super.send(message);
+	}
+
+	/**
+	 * Completes the current burst, called when the session event loop becomes idle.
+	 */
+	public synchronized void endBurst() {
+		if (burstFrames == 0) {
+			return;
+		}
+		
+		bursts++;
+		sentFrames += burstFrames;
+		sentSize += burstSize;
+		burstFrames = 0;
+		burstSize = 0;
+	}
+	
+	/**
+	 * Gets the write statistics of this connection, the sizes are counted in characters.
+	 *
+	 * @return the statistics
+	 * @throws JSONException some JSON exception
+	 */
+	public synchronized JSONObject getStatistics() throws JSONException {
+		JSONObject stats = new JSONObject();
+		stats.put("burstFrames", burstFrames);
+		stats.put("maxBurstFrames", maxBurstFrames);
+		stats.put("bursts", bursts);
+		stats.put("framesPerBurst", bursts > 0 ? sentFrames / bursts : 0);
+		stats.put("charsPerBurst", bursts > 0 ? sentSize / bursts : 0);
+		return stats;
+	}
+}
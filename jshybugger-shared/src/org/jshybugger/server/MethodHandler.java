@@ -0,0 +1,36 @@
+/*
+ * Copyright 2013 Wolfgang Flohr-Hochbichler (developer@jshybugger.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jshybugger.server;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.webbitserver.WebSocketConnection;
+
+/**
+ * A MethodHandler processes a single debug protocol method, i.e. "Debugger.resume".
+ * Message handlers register their method handlers once, the debug session routes the incoming
+ * messages with a single table lookup.
+ */
+public interface MethodHandler {
+
+	/**
+	 * Called on receive message from debug frontend.
+	 *
+	 * @param conn the websocket connection
+	 * @param message the JSON message
+	 * @throws JSONException the jSON exception
+	 */
+	void onReceiveMessage(WebSocketConnection conn, JSONObject message) throws JSONException;
+}
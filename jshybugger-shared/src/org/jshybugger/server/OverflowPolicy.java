@@ -0,0 +1,68 @@
+/*
+ * Copyright 2013 Wolfgang Flohr-Hochbichler (developer@jshybugger.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jshybugger.server;
+
+/**
+ * The OverflowPolicy defines what happens if a message is added to a full buffer.
+ */
+public enum OverflowPolicy {
+
+	/** The producer waits for free space, the message is dropped if the wait time elapses. */
+	BLOCK("block"),
+	
+	/** The oldest buffered message is dropped. */
+	DROP_OLDEST("dropOldest"),
+	
+	/** The new message is dropped. */
+	DROP_NEWEST("dropNewest");
+	
+	/** The configuration name. */
+	private final String configName;
+	
+	/**
+	 * Instantiates a new overflow policy.
+	 *
+	 * @param configName the name used in configurations
+	 */
+	private OverflowPolicy(String configName) {
+		this.configName = configName;
+	}
+	
+	/**
+	 * Gets the name used in configurations.
+	 *
+	 * @return the config name
+	 */
+	public String getConfigName() {
+		return configName;
+	}
+	
+	/**
+	 * Returns the policy for a configuration name.
+	 *
+	 * @param configName the config name i.e. "dropOldest"
+	 * @param defaultPolicy the policy returned for unknown or null names
+	 * @return the overflow policy
+	 */
+	public static OverflowPolicy fromConfigName(String configName, OverflowPolicy defaultPolicy) {
+		for (OverflowPolicy policy : values()) {
+			if (policy.configName.equals(configName)) {
+				return policy;
+			}
+		}
+		return defaultPolicy;
+	}
+}
@@ -16,7 +16,6 @@
 package org.jshybugger.server;
 
 import java.io.IOException;
-import java.util.HashMap;
 
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -30,9 +29,6 @@ import org.webbitserver.WebSocketConnection;
  */
 public class PageMsgHandler extends AbstractMsgHandler {
 
-	/** The methods available. */
-	private final HashMap<String,Boolean> METHODS_AVAILABLE = new HashMap<String, Boolean>(); 
-
 	/**
 	 * Instantiates a new page message handler.
 	 *
@@ -41,46 +37,41 @@ public class PageMsgHandler extends AbstractMsgHandler {
 	public PageMsgHandler(DebugSession debugServer) {
 		super(debugServer, "Page");
 
-		METHODS_AVAILABLE.put("disable", true);
-	}
+		addResultMethod("disable", true);
 
-	/* (non-Javadoc)
-	 * @see de.cyberflohrs.jshybugger.server.AbstractMsgHandler#onReceiveMessage(org.webbitserver.WebSocketConnection, java.lang.String, org.json.JSONObject)
-	 */
-	@Override
-	public void onReceiveMessage(WebSocketConnection conn, String method, JSONObject message) throws JSONException {
-		
-		if (METHODS_AVAILABLE.containsKey(method)) {
-			
-			JSONObject reply = new JSONObject();
-			
-			reply.put("id", message.getInt("id"));
-			reply.put("result", new JSONObject().put("result", METHODS_AVAILABLE.get(method)));
-			
-			
-			conn.send(reply.toString());
-			
-		} else if ("enable".equals(method)) {
-			
-			debugSession.getBrowserInterface().sendMsgToWebView(
-					"breakpoint-resume",
-					new JSONObject(), null);
-			
-		} else if ("getResourceTree".equals(method)) {
+		addMethodHandler("enable", new MethodHandler() {
 
-			getResourceTree(conn, message);
+			@Override
+			public void onReceiveMessage(WebSocketConnection conn, JSONObject message) throws JSONException {
+				debugSession.getBrowserInterface().sendMsgToWebView(
+						"breakpoint-resume",
+						new JSONObject(), null);
+			}
+		});
 
-		} else if ("getResourceContent".equals(method)) {
+		addMethodHandler("getResourceTree", new MethodHandler() {
 
-			getResourceContent(conn, message);
-						
-		} else if ("reload".equals(method)) {
-			
-			pageReload(conn, message);
+			@Override
+			public void onReceiveMessage(WebSocketConnection conn, JSONObject message) throws JSONException {
+				getResourceTree(conn, message);
+			}
+		});
 
-		} else {
-			super.onReceiveMessage(conn, method, message);
-		}
+		addMethodHandler("getResourceContent", new MethodHandler() {
+
+			@Override
+			public void onReceiveMessage(WebSocketConnection conn, JSONObject message) throws JSONException {
+				getResourceContent(conn, message);
+			}
+		});
+
+		addMethodHandler("reload", new MethodHandler() {
+
+			@Override
+			public void onReceiveMessage(WebSocketConnection conn, JSONObject message) throws JSONException {
+				pageReload(conn, message);
+			}
+		});
 	}
 	
 	/**
@@ -108,7 +99,7 @@ public class PageMsgHandler extends AbstractMsgHandler {
 			debugSession.getBrowserInterface().sendMsgToWebView(
 					"getResourceContent",
 					new JSONObject().put("params",message.getJSONObject("params")),
-					new ReplyReceiver() {
+					new ProtocolReplyReceiver(conn, message) {
 	
 				@Override
 				public void onReply(JSONObject data) throws JSONException {
@@ -117,7 +108,7 @@ public class PageMsgHandler extends AbstractMsgHandler {
 						conn.send(new JSONStringer().object()
 								.key("id").value(message.getInt("id"))
 								.key("result").value(new JSONObject()
-									.put("content", debugSession.loadScriptResourceById(url, data.getBoolean("base64Encoded") ))
+									.put("content", debugSession.getScriptResourceById(url, data.getBoolean("base64Encoded") ))
 									.put("base64Encoded", data.getBoolean("base64Encoded")))
 								.endObject().toString());
 						
@@ -142,7 +133,7 @@ public class PageMsgHandler extends AbstractMsgHandler {
 		debugSession.getBrowserInterface().sendMsgToWebView(
 				"getResourceTree",
 				null,
-				new ReplyReceiver() {
+				new ProtocolReplyReceiver(conn, message) {
 
 			@Override
 			public void onReply(JSONObject data) throws JSONException {
@@ -168,7 +159,7 @@ public class PageMsgHandler extends AbstractMsgHandler {
 		debugSession.getBrowserInterface().sendMsgToWebView(
 				"page-reload",
 				new JSONObject().put("params", message.getJSONObject("params")),
-				new ReplyReceiver() {
+				new ProtocolReplyReceiver(conn, message) {
 
 			@Override
 			public void onReply(JSONObject data) throws JSONException {
@@ -0,0 +1,252 @@
+/*
+ * Copyright 2013 Wolfgang Flohr-Hochbichler (developer@jshybugger.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jshybugger.server;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.json.JSONException;
+
+/**
+ * The PendingReplies table correlates the messages sent to the webview with their reply receivers.
+ * Every entry has a deadline, entries without reply are removed and {@link ProtocolReplyReceiver}s are cancelled
+ * so that the debugging frontend gets an error reply. The deadlines are checked by one sweep task per table, 
+ * which is only scheduled while requests are pending.
+ */
+public class PendingReplies {
+
+	/** The default reply timeout in milliseconds. */
+	public static final long DEFAULT_TIMEOUT = 30000;
+	
+	/** The interval of the deadline checks in milliseconds. */
+	private static final long SWEEP_INTERVAL = 1000;
+	
+	/** The shared timer for all tables. */
+	private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+		
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "jsHybuggerReplyTimer");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+	
+	/** The reply identifier. */
+	private final AtomicInteger replyIdentifier = new AtomicInteger();
+	
+	/** The pending requests by reply id. */
+	private final Map<Integer,PendingReply> pendingReplies = new ConcurrentHashMap<Integer,PendingReply>();
+	
+	/** True while the sweep task is scheduled. */
+	private final AtomicBoolean sweepScheduled = new AtomicBoolean();
+	
+	/** The sweep task, removes the requests which are past their deadline. */
+	private final Runnable sweepTask = new Runnable() {
+		
+		@Override
+		public void run() {
+			long now = System.currentTimeMillis();
+			for (Entry<Integer,PendingReply> entry : pendingReplies.entrySet()) {
+				PendingReply pending = entry.getValue();
+				if (pending.deadline > 0 && pending.deadline <= now && pendingReplies.remove(entry.getKey()) != null) {
+					timeouts.incrementAndGet();
+					cancel(pending.receiver, "no reply from webview within " + pending.timeout + "ms");
+				}
+			}
+			
+			sweepScheduled.set(false);
+			// a request might have been registered after the check
+			if (!pendingReplies.isEmpty()) {
+				scheduleSweep();
+			}
+		}
+	};
+	
+	/** The number of timed out requests. */
+	private final AtomicInteger timeouts = new AtomicInteger();
+	
+	/** The reply timeout. */
+	private volatile long timeout = DEFAULT_TIMEOUT;
+	
+	/** The executor which runs the cancel callbacks. */
+	private volatile Executor callbackExecutor;
+
+	/**
+	 * Sets the reply timeout.
+	 *
+	 * @param timeout the timeout in milliseconds, 0 disables the timeout
+	 */
+	public void setTimeout(long timeout) {
+		this.timeout = timeout;
+	}
+
+	/**
+	 * Sets the executor which runs the cancel callbacks of the receivers, by default the callbacks run on the cancelling thread.
+	 *
+	 * @param callbackExecutor the callback executor
+	 */
+	public void setCallbackExecutor(Executor callbackExecutor) {
+		this.callbackExecutor = callbackExecutor;
+	}
+
+	/**
+	 * Registers a reply receiver.
+	 *
+	 * @param receiver the receiver
+	 * @return the reply id
+	 */
+	public int register(ReplyReceiver receiver) {
+		int replyId = replyIdentifier.incrementAndGet();
+		pendingReplies.put(replyId, new PendingReply(receiver, timeout));
+		
+		if (timeout > 0) {
+			scheduleSweep();
+		}
+		return replyId;
+	}
+
+	/**
+	 * Schedules the sweep task, unless it is already scheduled.
+	 */
+	private void scheduleSweep() {
+		if (sweepScheduled.compareAndSet(false, true)) {
+			TIMER.schedule(sweepTask, SWEEP_INTERVAL, TimeUnit.MILLISECONDS);
+		}
+	}
+	
+	/**
+	 * Removes the reply receiver for a reply.
+	 *
+	 * @param replyId the reply id
+	 * @return the reply receiver or null if the request was cancelled or has timed out
+	 */
+	public ReplyReceiver remove(int replyId) {
+		PendingReply pending = pendingReplies.remove(replyId);
+		return pending != null ? pending.receiver : null;
+	}
+	
+	/**
+	 * Cancels a pending request.
+	 *
+	 * @param replyId the reply id
+	 * @param reason the reason
+	 */
+	public void cancel(int replyId, String reason) {
+		ReplyReceiver receiver = remove(replyId);
+		if (receiver != null) {
+			cancel(receiver, reason);
+		}
+	}
+	
+	/**
+	 * Cancels all pending requests.
+	 *
+	 * @param reason the reason
+	 */
+	public void cancelAll(String reason) {
+		List<ReplyReceiver> cancelled = new ArrayList<ReplyReceiver>();
+		for (Integer replyId : pendingReplies.keySet()) {
+			ReplyReceiver receiver = remove(replyId);
+			if (receiver != null) {
+				cancelled.add(receiver);
+			}
+		}
+		for (ReplyReceiver receiver : cancelled) {
+			cancel(receiver, reason);
+		}
+	}
+	
+	/**
+	 * Gets the number of outstanding requests.
+	 *
+	 * @return the pending count
+	 */
+	public int getPendingCount() {
+		return pendingReplies.size();
+	}
+	
+	/**
+	 * Gets the number of timed out requests.
+	 *
+	 * @return the timeout count
+	 */
+	public int getTimeoutCount() {
+		return timeouts.get();
+	}
+	
+	private void cancel(final ReplyReceiver receiver, final String reason) {
+		if (!(receiver instanceof ProtocolReplyReceiver)) {
+			return;
+		}
+		
+		Runnable callback = new Runnable() {
+			
+			@Override
+			public void run() {
+				try {
+					((ProtocolReplyReceiver)receiver).onCancel(reason);
+				} catch (Exception e) {
+//					Log.w(TAG, "cancel reply failed: " + e);
+				}
+			}
+		};
+		
+		Executor executor = callbackExecutor;
+		if (executor != null) {
+			executor.execute(callback);
+		} else {
+			callback.run();
+		}
+	}
+	
+	/**
+	 * A pending request.
+	 */
+	private static class PendingReply {
+		
+		/** The reply receiver. */
+		final ReplyReceiver receiver;
+		
+		/** The reply timeout in milliseconds, 0 if the request has no deadline. */
+		final long timeout;
+		
+		/** The deadline in milliseconds, 0 if the request has no deadline. */
+		final long deadline;
+		
+		/**
+		 * Instantiates a new pending reply.
+		 *
+		 * @param receiver the reply receiver
+		 * @param timeout the reply timeout in milliseconds, 0 disables the timeout
+		 */
+		PendingReply(ReplyReceiver receiver, long timeout) {
+			this.receiver = receiver;
+			this.timeout = timeout;
+			this.deadline = timeout > 0 ? System.currentTimeMillis() + timeout : 0;
+		}
+	}
+}
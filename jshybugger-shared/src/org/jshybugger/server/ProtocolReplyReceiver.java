@@ -0,0 +1,105 @@
+/*
+ * Copyright 2013 Wolfgang Flohr-Hochbichler (developer@jshybugger.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jshybugger.server;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONStringer;
+import org.webbitserver.WebSocketConnection;
+
+/**
+ * The ProtocolReplyReceiver is a ReplyReceiver for requests of the debugging frontend.
+ * If the webview never replies (timeout, page reload) the frontend request is answered with a protocol error. 
+ */
+public abstract class ProtocolReplyReceiver implements ReplyReceiver {
+
+	/** The websocket connection. */
+	protected final WebSocketConnection conn;
+	
+	/** The protocol request id. */
+	protected final int id;
+
+	/**
+	 * Instantiates a new protocol reply receiver.
+	 *
+	 * @param conn the websocket connection
+	 * @param id the protocol request id
+	 */
+	public ProtocolReplyReceiver(WebSocketConnection conn, int id) {
+		this.conn = conn;
+		this.id = id;
+	}
+	
+	/**
+	 * Instantiates a new protocol reply receiver.
+	 *
+	 * @param conn the websocket connection
+	 * @param message the protocol request
+	 */
+	public ProtocolReplyReceiver(WebSocketConnection conn, JSONObject message) {
+		this(conn, message.optInt("id"));
+	}
+
+	/**
+	 * Instantiates a new protocol reply receiver.
+	 *
+	 * @param conn the websocket connection
+	 * @param message the serialized protocol request
+	 */
+	public ProtocolReplyReceiver(WebSocketConnection conn, RawJSON message) {
+		this(conn, message.optInt("id", 0));
+	}
+
+	/**
+	 * Called with the serialized reply of the webview. Receivers which forward the reply unchanged 
+	 * should override this method and pass the reply through without parsing.
+	 *
+	 * @param data the serialized reply
+	 * @throws JSONException the jSON exception
+	 */
+	public void onRawReply(RawJSON data) throws JSONException {
+		onReply(data.toJSONObject());
+	}
+	
+	/**
+	 * Sends the protocol result to the debugger frontend.
+	 *
+	 * @param result the serialized result
+	 */
+	protected void sendResult(RawJSON result) {
+		if (conn != null) {
+			conn.send("{\"id\":" + id + ",\"result\":" + result.toJSONString() + "}");
+		}
+	}
+	
+	/**
+	 * Called if the webview will not reply.
+	 *
+	 * @param reason the reason
+	 * @throws JSONException the jSON exception
+	 */
+	public void onCancel(String reason) throws JSONException {
+		if (conn != null) {
+			conn.send(new JSONStringer().object()
+					.key("id").value(id)
+					.key("error").object()
+						.key("code").value(-32000)
+						.key("message").value(reason)
+						.endObject()
+					.endObject().toString());
+		}
+	}
+}
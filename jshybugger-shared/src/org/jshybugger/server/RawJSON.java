@@ -0,0 +1,257 @@
+/*
+ * Copyright 2013 Wolfgang Flohr-Hochbichler (developer@jshybugger.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jshybugger.server;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONString;
+import org.json.JSONTokener;
+
+/**
+ * The RawJSON is an already serialized JSON value which is passed through without parsing. 
+ * Used with a JSONStringer or JSONObject the value is written unchanged, the parsed object is
+ * only created if a message handler needs to read it. Single members can be extracted as raw text
+ * without parsing the whole value.
+ */
+public class RawJSON implements JSONString {
+
+	/** The serialized JSON value. */
+	private final String json;
+	
+	/** The parsed object, created on first use. */
+	private JSONObject object;
+
+	/**
+	 * Instantiates a new raw JSON value.
+	 *
+	 * @param json the serialized JSON value
+	 */
+	public RawJSON(String json) {
+		this.json = json;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.json.JSONString#toJSONString()
+	 */
+	@Override
+	public String toJSONString() {
+		return json;
+	}
+	
+	/**
+	 * Gets the parsed JSON object.
+	 *
+	 * @return the JSON object
+	 * @throws JSONException the value is not a JSON object
+	 */
+	public JSONObject toJSONObject() throws JSONException {
+		if (object == null) {
+			object = new JSONObject(json);
+		}
+		return object;
+	}
+	
+	/**
+	 * Gets the serialized value of a member of this JSON object. The member value is not parsed,
+	 * nested values are only skipped.
+	 *
+	 * @param name the member name
+	 * @return the raw member value or null if the member doesn't exist
+	 */
+	public RawJSON opt(String name) {
+		int[] member = findMember(name);
+		return member != null ? new RawJSON(json.substring(member[1], member[2])) : null;
+	}
+	
+	/**
+	 * Gets this JSON object without a member, the other members are not parsed.
+	 *
+	 * @param name the member name
+	 * @return the JSON object without the member, this object if the member doesn't exist
+	 */
+	public RawJSON without(String name) {
+		int[] member = findMember(name);
+		if (member == null) {
+			return this;
+		}
+		
+		int start = member[0];
+		int end = skipWhitespace(member[2]);
+		if (end < json.length() && json.charAt(end) == ',') {
+			end = skipWhitespace(end + 1);
+		} else {
+			// the last member, remove the separator in front of it
+			int separator = json.lastIndexOf(',', start);
+			if (separator > json.indexOf('{')) {
+				start = separator;
+			}
+		}
+		return new RawJSON(json.substring(0, start) + json.substring(end));
+	}
+	
+	/**
+	 * Finds a member of this JSON object.
+	 *
+	 * @param name the member name
+	 * @return the start of the member, the start and the end of the member value or null if the member doesn't exist
+	 */
+	private int[] findMember(String name) {
+		int len = json.length();
+		int pos = json.indexOf('{');
+		if (pos < 0) {
+			return null;
+		}
+		
+		pos = skipWhitespace(pos + 1);
+		while (pos < len && json.charAt(pos) == '"') {
+			int memberStart = pos;
+			int keyEnd = skipString(pos);
+			boolean found = keyEnd - pos - 2 == name.length() && json.regionMatches(pos + 1, name, 0, name.length());
+			
+			pos = skipWhitespace(keyEnd);
+			if (pos >= len || json.charAt(pos) != ':') {
+				return null;
+			}
+			int valueStart = skipWhitespace(pos + 1);
+			int valueEnd = skipValue(valueStart);
+			if (found) {
+				return new int[] { memberStart, valueStart, valueEnd };
+			}
+			
+			pos = skipWhitespace(valueEnd);
+			if (pos >= len || json.charAt(pos) != ',') {
+				return null;
+			}
+			pos = skipWhitespace(pos + 1);
+		}
+		return null;
+	}
+	
+	/**
+	 * Gets a string member of this JSON object.
+	 *
+	 * @param name the member name
+	 * @return the member value or null if the member doesn't exist or is no string
+	 * @throws JSONException the member value is malformed
+	 */
+	public String optString(String name) throws JSONException {
+		RawJSON value = opt(name);
+		if (value == null || !value.json.startsWith("\"")) {
+			return null;
+		}
+		// plain strings need no unescaping
+		if (value.json.indexOf('\\') < 0) {
+			return value.json.substring(1, value.json.length() - 1);
+		}
+		return (String) new JSONTokener(value.json).nextValue();
+	}
+	
+	/**
+	 * Gets an integer member of this JSON object.
+	 *
+	 * @param name the member name
+	 * @param defaultValue the value used if the member doesn't exist or is no integer
+	 * @return the member value
+	 */
+	public int optInt(String name, int defaultValue) {
+		RawJSON value = opt(name);
+		if (value != null) {
+			try {
+				return Integer.parseInt(value.json);
+			} catch (NumberFormatException e) {
+				// not an integer
+			}
+		}
+		return defaultValue;
+	}
+	
+	/**
+	 * Skips whitespace.
+	 *
+	 * @param pos the start position
+	 * @return the position of the next non whitespace character
+	 */
+	private int skipWhitespace(int pos) {
+		while (pos < json.length() && Character.isWhitespace(json.charAt(pos))) {
+			pos++;
+		}
+		return pos;
+	}
+	
+	/**
+	 * Skips a string value.
+	 *
+	 * @param pos the position of the opening quote
+	 * @return the position after the closing quote
+	 */
+	private int skipString(int pos) {
+		int len = json.length();
+		pos++;
+		while (pos < len) {
+			char c = json.charAt(pos);
+			if (c == '\\') {
+				pos += 2;
+			} else if (c == '"') {
+				return pos + 1;
+			} else {
+				pos++;
+			}
+		}
+		return len;
+	}
+	
+	/**
+	 * Skips a value, nested objects and arrays are skipped as a whole.
+	 *
+	 * @param pos the start position of the value
+	 * @return the position after the value
+	 */
+	private int skipValue(int pos) {
+		int len = json.length();
+		int depth = 0;
+		while (pos < len) {
+			char c = json.charAt(pos);
+			if (c == '"') {
+				pos = skipString(pos);
+				if (depth == 0) {
+					return pos;
+				}
+				continue;
+			} else if (c == '{' || c == '[') {
+				depth++;
+			} else if (c == '}' || c == ']') {
+				if (depth == 0) {
+					return pos;
+				}
+				if (--depth == 0) {
+					return pos + 1;
+				}
+			} else if (depth == 0 && (c == ',' || Character.isWhitespace(c))) {
+				return pos;
+			}
+			pos++;
+		}
+		return len;
+	}
+	
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return json;
+	}
+}
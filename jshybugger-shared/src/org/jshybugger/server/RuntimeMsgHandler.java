@@ -15,11 +15,9 @@
  */
 package org.jshybugger.server;
 
-import java.util.HashMap;
 
 import org.json.JSONException;
 import org.json.JSONObject;
-import org.json.JSONStringer;
 import org.webbitserver.WebSocketConnection;
 
 
@@ -30,9 +28,6 @@ import org.webbitserver.WebSocketConnection;
  */
 public class RuntimeMsgHandler extends AbstractMsgHandler {
 
-	/** The methods available. */
-	private final HashMap<String,Boolean> METHODS_AVAILABLE = new HashMap<String, Boolean>(); 
-
 	/**
 	 * Instantiates a new runtime message handler.
 	 *
@@ -41,81 +36,66 @@ public class RuntimeMsgHandler extends AbstractMsgHandler {
 	public RuntimeMsgHandler(DebugSession debugServer) {
 		super(debugServer, "Runtime");
 
-		METHODS_AVAILABLE.put("enable", true);
-	}
+		addResultMethod("enable", true);
 
-	/* (non-Javadoc)
-	 * @see de.cyberflohrs.jshybugger.server.AbstractMsgHandler#onReceiveMessage(org.webbitserver.WebSocketConnection, java.lang.String, org.json.JSONObject)
-	 */
-	@Override
-	public void onReceiveMessage(WebSocketConnection conn, String method, JSONObject message) throws JSONException {
-		
-		if (METHODS_AVAILABLE.containsKey(method)) {
-			
-			JSONObject reply = new JSONObject();
-			
-			reply.put("id", message.getInt("id"));
-			reply.put("result", new JSONObject().put("result", METHODS_AVAILABLE.get(method)));
-			
-			
-			conn.send(reply.toString());
-			
-		} else if (method.equals("releaseObjectGroup")) {
-			
-			releaseObjectGroup(conn, message);
-			
-		} else if (method.equals("getProperties")) {
-			
-			getProperties(conn, message);
+		addMethodHandler("releaseObjectGroup", new RawMethodHandler() {
 
-		} else if (method.equals("evaluate")) {
-			
-			evaluate(conn, message);
+			@Override
+			public void onReceiveRawMessage(WebSocketConnection conn, RawJSON message) throws JSONException {
+				releaseObjectGroup(conn, message);
+			}
+		});
 
-		} else if (method.equals("callFunctionOn")) {
+		addMethodHandler("getProperties", new RawMethodHandler() {
 
-			callFunctionOn(conn, message);
-			
-		} else {
-			super.onReceiveMessage(conn, method, message);
-		}
-	}
+			@Override
+			public void onReceiveRawMessage(WebSocketConnection conn, RawJSON message) throws JSONException {
+				getProperties(conn, message);
+			}
+		});
+
+		addMethodHandler("evaluate", new RawMethodHandler() {
 
-	private void releaseObjectGroup(final WebSocketConnection conn, final JSONObject message) throws JSONException {
+			@Override
+			public void onReceiveRawMessage(WebSocketConnection conn, RawJSON message) throws JSONException {
+				evaluate(conn, message);
+			}
+		});
 
-		debugSession.getBrowserInterface().sendMsgToWebView(
-				"releaseObjectGroup",
-				new JSONObject().put("params", message.getJSONObject("params")),
-				new ReplyReceiver() {
+		addMethodHandler("callFunctionOn", new RawMethodHandler() {
 
 			@Override
-			public void onReply(JSONObject data) throws JSONException {
-				
-				conn.send(new JSONStringer().object()
-						.key("id").value(message.getInt("id"))
-						.key("result").value(data.getJSONObject("result"))
-						.endObject().toString());
-				}
-		});		
+			public void onReceiveRawMessage(WebSocketConnection conn, RawJSON message) throws JSONException {
+				callFunctionOn(conn, message);
+			}
+		});
 	}
 
-	private void callFunctionOn(final WebSocketConnection conn, final JSONObject message) throws JSONException {
+	/**
+	 * Process "Runtime.releaseObjectGroup" protocol messages.
+	 * Forwards the message to the WebView and returns the result to the debugger frontend. 
+	 *
+	 * @param conn the websocket connection
+	 * @param message the serialized JSON message
+	 * @throws JSONException some JSON exception
+	 */
+	private void releaseObjectGroup(final WebSocketConnection conn, final RawJSON message) throws JSONException {
+
+		sendParamsToWebView("releaseObjectGroup", message, new ResultReplyReceiver(conn, message));		
+	}
 
-		debugSession.getBrowserInterface().sendMsgToWebView(
-				"callFunctionOn",
-				new JSONObject().put("params", message.getJSONObject("params")),
-				new ReplyReceiver() {
+	/**
+	 * Process "Runtime.callFunctionOn" protocol messages.
+	 * Forwards the message to the WebView and returns the result to the debugger frontend. 
+	 *
+	 * @param conn the websocket connection
+	 * @param message the serialized JSON message
+	 * @throws JSONException some JSON exception
+	 */
+	private void callFunctionOn(final WebSocketConnection conn, final RawJSON message) throws JSONException {
 
-			@Override
-			public void onReply(JSONObject data) throws JSONException {
-				
-				conn.send(new JSONStringer().object()
-						.key("id").value(message.getInt("id"))
-						.key("result").value(data.getJSONObject("result"))
-						.endObject().toString());
-				}
-		});		
-		
+		// function declaration and arguments are passed through unchanged
+		sendParamsToWebView("callFunctionOn", message, new ResultReplyReceiver(conn, message));		
 	}
 
 	/**
@@ -123,26 +103,28 @@ public class RuntimeMsgHandler extends AbstractMsgHandler {
 	 * Forwards the message to the WebView and returns the result to the debugger frontend. 
 	 *
 	 * @param conn the websocket connection
-	 * @param message the JSON message
+	 * @param message the serialized JSON message
 	 * @throws JSONException some JSON exception
 	 */
-	private void getProperties(final WebSocketConnection conn, final JSONObject message) throws JSONException {
-		JSONObject params = message.getJSONObject("params");
+	private void getProperties(final WebSocketConnection conn, final RawJSON message) throws JSONException {
+		RawJSON params = message.opt("params");
+		RawJSON objectId = params != null ? params.opt("objectId") : null;
 		
-		debugSession.getBrowserInterface().sendMsgToWebView(
+		debugSession.getBrowserInterface().sendRawMsgToWebView(
 				"getProperties",
-				new JSONObject().put("objectId", params.getString("objectId")),
-				new ReplyReceiver() {
+				new RawJSON("{\"objectId\":" + (objectId != null ? objectId.toJSONString() : "null") + "}"),
+				new ProtocolReplyReceiver(conn, message) {
 
 			@Override
 			public void onReply(JSONObject data) throws JSONException {
-				
-				conn.send(new JSONStringer().object()
-						.key("id").value(message.getInt("id"))
-						.key("result").object()
-							.key("result").value(data.getJSONArray("result"))
-						.endObject().endObject().toString());
-				}
+				onRawReply(new RawJSON(data.toString()));
+			}
+			
+			@Override
+			public void onRawReply(RawJSON data) throws JSONException {
+				// the reply is { result : [ properties ] }
+				sendResult(data);
+			}
 		});		
 	}
 
@@ -151,26 +133,55 @@ public class RuntimeMsgHandler extends AbstractMsgHandler {
 	 * Forwards the message to the WebView and returns the result to the debugger frontend. 
 	 *
 	 * @param conn the websocket connection
-	 * @param message the JSON message
+	 * @param message the serialized JSON message
 	 * @throws JSONException some JSON exception
 	 */
-	private void evaluate(final WebSocketConnection conn, final JSONObject message) throws JSONException {
-		JSONObject params = message.getJSONObject("params");
+	private void evaluate(final WebSocketConnection conn, final RawJSON message) throws JSONException {
 		
-		debugSession.getBrowserInterface().sendMsgToWebView(
-				"evaluate",
-				new JSONObject().put("params", params),
-				new ReplyReceiver() {
+		sendParamsToWebView("evaluate", message, new ProtocolReplyReceiver(conn, message) {
 
 			@Override
 			public void onReply(JSONObject data) throws JSONException {
-				
-				conn.send(new JSONStringer().object()
-						.key("id").value(message.getInt("id"))
-						.key("result").object()
-							.key("result").value(data)
-						.endObject().endObject().toString());
-				}
+				onRawReply(new RawJSON(data.toString()));
+			}
+			
+			@Override
+			public void onRawReply(RawJSON data) throws JSONException {
+				sendResult(new RawJSON("{\"result\":" + data.toJSONString() + "}"));
+			}
 		});		
 	}
+	
+	/**
+	 * The ResultReplyReceiver returns the "result" member of the webview reply to the debugger frontend.
+	 */
+	private static class ResultReplyReceiver extends ProtocolReplyReceiver {
+
+		/**
+		 * Instantiates a new result reply receiver.
+		 *
+		 * @param conn the websocket connection
+		 * @param message the serialized protocol request
+		 */
+		ResultReplyReceiver(WebSocketConnection conn, RawJSON message) {
+			super(conn, message);
+		}
+
+		/* (non-Javadoc)
+		 * @see org.jshybugger.server.ReplyReceiver#onReply(org.json.JSONObject)
+		 */
+		@Override
+		public void onReply(JSONObject data) throws JSONException {
+			onRawReply(new RawJSON(data.toString()));
+		}
+		
+		/* (non-Javadoc)
+		 * @see org.jshybugger.server.ProtocolReplyReceiver#onRawReply(org.jshybugger.server.RawJSON)
+		 */
+		@Override
+		public void onRawReply(RawJSON data) throws JSONException {
+			RawJSON result = data.opt("result");
+			sendResult(result != null ? result : new RawJSON("null"));
+		}
+	}
 }
@@ -0,0 +1,279 @@
+/*
+ * Copyright 2013 Wolfgang Flohr-Hochbichler (developer@jshybugger.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jshybugger.server;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * The ScriptSourceCache keeps recently loaded script and resource sources, the least recently used 
+ * sources are evicted if the size limit is reached. 
+ * 
+ * Every source is stored with the version of the script it was loaded for. The version is the source 
+ * hash reported by "Debugger.scriptParsed", sources of resources which are not instrumented are only 
+ * valid until the page is reloaded. A source is used only while its version is current, so a script 
+ * which changed on reload is loaded again while unchanged scripts are served from the cache.
+ */
+public class ScriptSourceCache {
+
+	/** The default max size in bytes. */
+	public static final int DEFAULT_MAX_SIZE = 4 * 1024 * 1024;
+
+	/** The cached sources in access order, the key is the script id and the encoding. */
+	private final LinkedHashMap<String,Entry> entries = new LinkedHashMap<String,Entry>(16, 0.75f, true);
+	
+	/** The source hashes of the scripts parsed by the current page. */
+	private final Map<String,String> scriptVersions = new HashMap<String,String>();
+	
+	/** The page load counter, the version of resources without source hash. */
+	private int pageGeneration;
+	
+	/** The max size in bytes. */
+	private int maxSize;
+	
+	/** The size of all cached sources in bytes. */
+	private int size;
+	
+	/** The statistic counters. */
+	private long hits, misses, evictions, invalidations;
+	
+	/**
+	 * Instantiates a new script source cache.
+	 *
+	 * @param maxSize the max size in bytes
+	 */
+	public ScriptSourceCache(int maxSize) {
+		setMaxSize(maxSize);
+	}
+	
+	/**
+	 * Sets the max size, 0 disables the cache.
+	 *
+	 * @param maxSize the max size in bytes
+	 */
+	public synchronized void setMaxSize(int maxSize) {
+		if (maxSize < 0) {
+			throw new IllegalArgumentException("maxSize must not be negative: " + maxSize);
+		}
+		this.maxSize = maxSize;
+		evict();
+	}
+	
+	/**
+	 * Gets the current version of a script. The version must be taken before the source is loaded and 
+	 * passed to {@link #put(String, boolean, String, String)}. 
+	 *
+	 * @param scriptId the script id
+	 * @return the script version
+	 */
+	public synchronized String getVersion(String scriptId) {
+		String version = scriptVersions.get(scriptId);
+		return version != null ? version : "page:" + pageGeneration;
+	}
+	
+	/**
+	 * Gets a cached source.
+	 *
+	 * @param scriptId the script id
+	 * @param encode true for the base64 encoded source
+	 * @return the source or null if the source is not cached or outdated
+	 */
+	public synchronized String get(String scriptId, boolean encode) {
+		String key = getKey(scriptId, encode);
+		Entry entry = entries.get(key);
+		if (entry != null && !entry.version.equals(getVersion(scriptId))) {
+			remove(key);
+			entry = null;
+		}
+		
+		if (entry == null) {
+			misses++;
+			return null;
+		}
+		hits++;
+		return entry.source;
+	}
+	
+	/**
+	 * Adds a loaded source. Sources loaded for an outdated version or bigger than the max size are not cached.
+	 *
+	 * @param scriptId the script id
+	 * @param encode true for the base64 encoded source
+	 * @param version the script version when loading started, see {@link #getVersion(String)}
+	 * @param source the source
+	 */
+	public synchronized void put(String scriptId, boolean encode, String version, String source) {
+		
+		long sourceSize = 2L * source.length();
+		if (sourceSize > maxSize || !version.equals(getVersion(scriptId))) {
+			return;
+		}
+		
+		String key = getKey(scriptId, encode);
+		remove(key);
+		entries.put(key, new Entry(version, source));
+		size += sourceSize;
+		evict();
+	}
+	
+	/**
+	 * Records the version of a parsed script, cached sources of an older version are removed. 
+	 *
+	 * @param scriptId the script id
+	 * @param sourceHash the source hash, null if the script has no source hash
+	 */
+	public synchronized void scriptParsed(String scriptId, String sourceHash) {
+		if (sourceHash != null) {
+			scriptVersions.put(scriptId, sourceHash);
+		} else {
+			scriptVersions.remove(scriptId);
+		}
+		removeOutdated(scriptId);
+	}
+	
+	/**
+	 * Starts a new page version. Sources stay cached, but a script source is used again only if the
+	 * script is parsed with the same source hash. Resources without source hash are removed.
+	 */
+	public synchronized void pageLoaded() {
+		pageGeneration++;
+		scriptVersions.clear();
+		
+		for (Iterator<Entry> it = entries.values().iterator(); it.hasNext(); ) {
+			Entry entry = it.next();
+			if (entry.version.startsWith("page:")) {
+				size -= 2 * entry.source.length();
+				invalidations++;
+				it.remove();
+			}
+		}
+	}
+	
+	/**
+	 * Removes the sources of a script, i.e. if the script source was changed by the debugger frontend.
+	 * The script is treated as unparsed until it's reported again.
+	 *
+	 * @param scriptId the script id
+	 */
+	public synchronized void invalidate(String scriptId) {
+		scriptVersions.remove(scriptId);
+		if (remove(getKey(scriptId, false))) {
+			invalidations++;
+		}
+		if (remove(getKey(scriptId, true))) {
+			invalidations++;
+		}
+	}
+	
+	/**
+	 * Gets the cache statistics.
+	 *
+	 * @return the statistics
+	 * @throws JSONException some JSON exception
+	 */
+	public synchronized JSONObject getStatistics() throws JSONException {
+		return new JSONObject()
+			.put("entries", entries.size())
+			.put("size", size)
+			.put("maxSize", maxSize)
+			.put("hits", hits)
+			.put("misses", misses)
+			.put("evictions", evictions)
+			.put("invalidations", invalidations);
+	}
+	
+	/**
+	 * Removes the sources of a script which don't match the current script version.
+	 *
+	 * @param scriptId the script id
+	 */
+	private void removeOutdated(String scriptId) {
+		String version = getVersion(scriptId);
+		for (int i = 0; i < 2; i++) {
+			String key = getKey(scriptId, i == 1);
+			Entry entry = entries.get(key);
+			if (entry != null && !entry.version.equals(version)) {
+				remove(key);
+				invalidations++;
+			}
+		}
+	}
+	
+	/**
+	 * Removes a cached source.
+	 *
+	 * @param key the cache key
+	 * @return true if a source was removed
+	 */
+	private boolean remove(String key) {
+		Entry entry = entries.remove(key);
+		if (entry != null) {
+			size -= 2 * entry.source.length();
+			return true;
+		}
+		return false;
+	}
+	
+	/**
+	 * Removes the least recently used sources until the size limit is reached.
+	 */
+	private void evict() {
+		for (Iterator<Entry> it = entries.values().iterator(); size > maxSize && it.hasNext(); ) {
+			size -= 2 * it.next().source.length();
+			evictions++;
+			it.remove();
+		}
+	}
+	
+	/**
+	 * Gets the cache key.
+	 *
+	 * @param scriptId the script id
+	 * @param encode true for the base64 encoded source
+	 * @return the key
+	 */
+	private static String getKey(String scriptId, boolean encode) {
+		return (encode ? "b64:" : "src:") + scriptId;
+	}
+	
+	/**
+	 * The cached source.
+	 */
+	private static class Entry {
+		
+		/** The script version. */
+		final String version;
+		
+		/** The source. */
+		final String source;
+		
+		/**
+		 * Instantiates a new entry.
+		 *
+		 * @param version the script version
+		 * @param source the source
+		 */
+		Entry(String version, String source) {
+			this.version = version;
+			this.source = source;
+		}
+	}
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright 2013 Wolfgang Flohr-Hochbichler (developer@jshybugger.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jshybugger.server;
+import java.util.LinkedList;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+
+/**
+ * The SerialExecutor runs its tasks one after another in submission order. The tasks are run by 
+ * a shared executor, no thread is kept while the queue is empty. An optional idle task runs each 
+ * time the queue has been drained.
+ */
+public class SerialExecutor implements Executor {
+
+	/** The queued tasks. */
+	private final Queue<Runnable> tasks = new LinkedList<Runnable>();
+	
+	/** The executor which runs the tasks. */
+	private final Executor executor;
+	
+	/** True while a drain task is scheduled or running. */
+	private boolean active;
+	
+	/** The thread which runs the tasks right now. */
+	private volatile Thread runningThread;
+	
+	/** The task which runs after the queue has been drained. */
+	private Runnable idleTask;
+	
+	/** True if the idle task has run since the last queued task. */
+	private boolean idle;
+	
+	/** The task which runs the queued tasks. */
+	private final Runnable drainTask = new Runnable() {
+		
+		@Override
+		public void run() {
+			runningThread = Thread.currentThread();
+			boolean drained = false;
+			try {
+				Runnable task;
+				while ((task = nextTask()) != null) {
+					try {
+						task.run();
+					} catch (RuntimeException e) {
+						e.printStackTrace();
+					}
+				}
+				drained = true;
+			} finally {
+				if (!drained) {
+					// an Error ended the drain task, the remaining tasks run in a new one
+					restart();
+				}
+			}
+		}
+	};
+
+	/**
+	 * Instantiates a new serial executor.
+	 *
+	 * @param executor the executor which runs the tasks
+	 */
+	public SerialExecutor(Executor executor) {
+		this.executor = executor;
+	}
+
+	/**
+	 * Sets the task which runs each time the queue has been drained.
+	 *
+	 * @param idleTask the idle task
+	 */
+	public synchronized void setIdleTask(Runnable idleTask) {
+		this.idleTask = idleTask;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.util.concurrent.Executor#execute(java.lang.Runnable)
+	 */
+	@Override
+	public synchronized void execute(Runnable task) {
+		tasks.add(task);
+		if (!active) {
+			active = true;
+			executor.execute(drainTask);
+		}
+	}
+	
+	/**
+	 * Checks if the current thread is running a task of this executor.
+	 *
+	 * @return true, if called from a task
+	 */
+	public boolean isExecutorThread() {
+		return runningThread == Thread.currentThread();
+	}
+	
+	/**
+	 * Gets the next task, the idle task follows the last queued task. 
+	 * The drain task ends if the queue is still empty after the idle task.
+	 *
+	 * @return the next task or null if the queue is empty
+	 */
+	private synchronized Runnable nextTask() {
+		Runnable task = tasks.poll();
+		if (task != null) {
+			idle = false;
+			return task;
+		}
+		if (!idle && idleTask != null) {
+			idle = true;
+			return idleTask;
+		}
+		
+		idle = false;
+		runningThread = null;
+		active = false;
+		return null;
+	}
+	
+	/**
+	 * Resets the state after the drain task was aborted and schedules a new drain task if tasks are queued.
+	 */
+	private synchronized void restart() {
+		idle = false;
+		runningThread = null;
+		active = !tasks.isEmpty();
+		if (active) {
+			executor.execute(drainTask);
+		}
+	}
+}